@@ -3,13 +3,16 @@ package model;
 import javafx.beans.property.IntegerProperty;
 import javafx.beans.property.SimpleIntegerProperty;
 import model.Exceptions.InvalidMapException;
+import model.Map.Board;
 import model.Map.Map;
-import model.Map.Occupant.Crate;
-import model.Map.Occupiable.DestTile;
+import model.Map.PushPlanner;
+import model.Map.WalkPlanner;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.Future;
 
 /**
  * A class that loads, stores, modifies, and keeps track of the game map win/deadlock condition. Also keeps tracks
@@ -17,8 +20,27 @@ import java.util.Scanner;
  */
 public class GameLevel {
 
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+    //each journal entry takes 3 bits: the direction ordinal, and whether a crate was pushed
+    private static final int ENTRY_BITS = 3;
+    private static final int ENTRY_MASK = (1 << ENTRY_BITS) - 1;
+    private static final int ENTRIES_PER_WORD = Long.SIZE / ENTRY_BITS;
+    private static final int PUSHED = 4;
+
     private final IntegerProperty numPushes = new SimpleIntegerProperty(0);
     private Map map;
+    //the state of the map right after it was loaded, restored when restarting
+    private Map.Snapshot initialState;
+    //finds the walks of the player to clicked squares, caching its searches until a crate moves
+    private WalkPlanner walkPlanner;
+    private PushPlanner pushPlanner;
+
+    //the moves made on this level, packed 21 to a long
+    private long[] journal = new long[64];
+    //the number of moves in the journal, including the undone ones which can still be redone
+    private int journalSize;
+    //the number of moves in the journal currently applied to the map
+    private int journalPos;
 
     public IntegerProperty numPushesProperty() {
         return numPushes;
@@ -51,33 +73,55 @@ public class GameLevel {
 
             map = new Map();
             map.initialize(numRows, numCols, rep);
+            initialState = map.snapshot();
+            walkPlanner = new WalkPlanner(map.getBoard());
+            pushPlanner = new PushPlanner(map.getBoard());
+            journalSize = 0;
+            journalPos = 0;
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Starts preparing the deadlock checks which need the whole level analysed, on another thread, so that the first
+     * move does not wait for them. Called once the level is going to be played rather than only previewed.
+     *
+     * @return Done once the checks are ready
+     */
+    public Future<?> prepareForPlay() {
+        return map.prepareMatching();
+    }
+
+    /**
+     * Puts the map back into the state it was loaded in, without reading the map file again. Also clears the moves
+     * made and the undo journal.
+     */
+    public void restart() {
+        map.restore(initialState);
+        journalSize = 0;
+        journalPos = 0;
+        numPushes.set(0);
+    }
+
     /**
      * @return Whether or not the win condition has been satisfied
      */
     public boolean isWin() {
-        return map.getDestTiles().stream().allMatch(DestTile::isCompleted);
+        return map.isAllDestTilesCompleted();
     }
 
     /**
-     * When no crates can be moved but the game is not won, then deadlock has occurred
+     * When no crates can be moved but the game is not won, then deadlock has occurred. Deadlock has also occurred
+     * as soon as a crate is pushed onto a dead square, from which it can never reach a destination, or when the last
+     * pushed crate got frozen against walls and other crates while some of them are off their destinations, or the
+     * crates around it match a deadlock pattern proven by the solver.
      *
      * @return Whether deadlock has occurred
      */
     public boolean isDeadlocked() {
-        for (Crate c : map.getCrates()) {
-            boolean canMoveLR = map.isOccupiableAndNotOccupiedWithCrate(c.getR(), c.getC() - 1)
-                    && map.isOccupiableAndNotOccupiedWithCrate(c.getR(), c.getC() + 1);
-            boolean canMoveUD = map.isOccupiableAndNotOccupiedWithCrate(c.getR() - 1, c.getC()) &&
-                    map.isOccupiableAndNotOccupiedWithCrate(c.getR() + 1, c.getC());
-            if (canMoveLR || canMoveUD)
-                return false;
-        }
-        return true;
+        return map.hasCrateOnDeadSquare() || map.isLastPushedCrateFrozen() || map.hasUnmatchableCrates()
+                || !map.hasMovableCrate();
     }
 
     /**
@@ -89,24 +133,135 @@ public class GameLevel {
      * @return Whether or not the move was successful
      */
     public boolean makeMove(char c) {
-        boolean madeMove = false;
-        switch (c) {
-            case 'w':
-                madeMove = map.movePlayer(Map.Direction.UP);
-                break;
-            case 'a':
-                madeMove = map.movePlayer(Map.Direction.LEFT);
-                break;
-            case 's':
-                madeMove = map.movePlayer(Map.Direction.DOWN);
-                break;
-            case 'd':
-                madeMove = map.movePlayer(Map.Direction.RIGHT);
-                break;
-        }
-        if (madeMove) {
-            numPushes.setValue(numPushes.getValue() + 1);
-        }
+        boolean madeMove = applyMove(c);
+        if (madeMove)
+            numPushes.set(numPushes.get() + 1);
+        return madeMove;
+    }
+
+    /**
+     * Makes the moves one after another, stopping at the first which cannot be made. The number of moves is only
+     * updated once at the end, so its listeners see a single change for the whole batch.
+     *
+     * @param moves The chars corresponding to the moves, as in {@link #makeMove(char)}
+     * @return The number of moves made
+     */
+    public int makeMoves(String moves) {
+        int made = 0;
+        while (made < moves.length() && applyMove(moves.charAt(made)))
+            made++;
+        if (made > 0)
+            numPushes.set(numPushes.get() + made);
+        return made;
+    }
+
+    /**
+     * @param r The row coordinate of the square
+     * @param c The column coordinate of the square
+     * @return The moves of a shortest walk of the player to the square, without pushing any crate, or null if there
+     * is no such walk
+     */
+    public String findWalk(int r, int c) {
+        Board board = map.getBoard();
+        if (r < 0 || r >= board.getRows() || c < 0 || c >= board.getCols())
+            return null;
+        return walkPlanner.plan(board.index(r, c));
+    }
+
+    /**
+     * @param crateR The row coordinate of the crate
+     * @param crateC The column coordinate of the crate
+     * @param r      The row coordinate of the square to push the crate to
+     * @param c      The column coordinate of the square to push the crate to
+     * @return The moves pushing the crate to the square with as few pushes as possible, the player walking around it
+     * between pushes, or null if there is no crate there or it cannot get to the square without moving other crates
+     */
+    public String findPushes(int crateR, int crateC, int r, int c) {
+        return findPushes(map.getBoard(), pushPlanner, crateR, crateC, r, c);
+    }
+
+    /**
+     * As {@link #findPushes(int, int, int, int)}, on a board of its own rather than the level's, e.g. a copy of it,
+     * so that the search can run on another thread while the level is played on.
+     *
+     * @param board  The board to plan on, from its current state
+     * @param crateR The row coordinate of the crate
+     * @param crateC The column coordinate of the crate
+     * @param r      The row coordinate of the square to push the crate to
+     * @param c      The column coordinate of the square to push the crate to
+     * @return The moves pushing the crate to the square, or null, as in {@link #findPushes(int, int, int, int)}
+     */
+    public static String findPushes(Board board, int crateR, int crateC, int r, int c) {
+        return findPushes(board, new PushPlanner(board), crateR, crateC, r, c);
+    }
+
+    private static String findPushes(Board board, PushPlanner planner, int crateR, int crateC, int r, int c) {
+        if (crateR < 0 || crateR >= board.getRows() || crateC < 0 || crateC >= board.getCols()
+                || r < 0 || r >= board.getRows() || c < 0 || c >= board.getCols())
+            return null;
+        int crate = board.index(crateR, crateC);
+        int target = board.index(r, c);
+        if (!board.hasCrate(crate) || board.isWall(target) || (board.hasCrate(target) && target != crate))
+            return null;
+        return planner.planMoves(crate, target);
+    }
+
+    /**
+     * Makes the move on the map and records it in the journal, without updating the number of moves.
+     */
+    private boolean applyMove(char c) {
+        Map.Direction d = Map.Direction.fromKey(c);
+        if (d == null)
+            return false;
+
+        boolean madeMove = map.movePlayer(d);
+        if (madeMove)
+            record(d.ordinal() | (map.lastMoveWasPush() ? PUSHED : 0));
         return madeMove;
     }
+
+    /**
+     * Reverses the last move made, pulling back the crate it pushed if any.
+     *
+     * @return Whether there was a move to undo
+     */
+    public boolean undo() {
+        if (journalPos == 0)
+            return false;
+        int entry = entryAt(--journalPos);
+        map.undoMove(DIRECTIONS[entry & ~PUSHED], (entry & PUSHED) != 0);
+        numPushes.set(numPushes.get() - 1);
+        return true;
+    }
+
+    /**
+     * Makes the last undone move again. Making any other move discards the moves which could be redone.
+     *
+     * @return Whether there was a move to redo
+     */
+    public boolean redo() {
+        if (journalPos == journalSize)
+            return false;
+        map.movePlayer(DIRECTIONS[entryAt(journalPos++) & ~PUSHED]);
+        numPushes.set(numPushes.get() + 1);
+        return true;
+    }
+
+    /**
+     * Appends the entry after the currently applied moves, dropping the moves which could be redone.
+     *
+     * @param entry The direction ordinal, combined with PUSHED if a crate was pushed
+     */
+    private void record(int entry) {
+        int word = journalPos / ENTRIES_PER_WORD;
+        int shift = (journalPos % ENTRIES_PER_WORD) * ENTRY_BITS;
+        if (word == journal.length)
+            journal = Arrays.copyOf(journal, journal.length * 2);
+        journal[word] = (journal[word] & ~((long) ENTRY_MASK << shift)) | ((long) entry << shift);
+        journalSize = ++journalPos;
+    }
+
+    private int entryAt(int pos) {
+        return (int) (journal[pos / ENTRIES_PER_WORD] >>> ((pos % ENTRIES_PER_WORD) * ENTRY_BITS)) & ENTRY_MASK;
+    }
 }
@@ -103,6 +103,15 @@ public class LevelManager {
 
     }
 
+    /**
+     * Restarts the current level from the copy of its initial state kept in memory, so the map file is not read and
+     * parsed again. Resets the level existed duration, but keeps the number of restarts.
+     */
+    public void restartLevel() {
+        gameLevel.restart();
+        curGameLevelExistedDuration.set(0);
+    }
+
     /**
      * Starts the timer, which updates {@link #curGameLevelExistedDuration} every second.
      * <p>
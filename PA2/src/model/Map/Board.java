@@ -0,0 +1,833 @@
+package model.Map;
+
+import model.Exceptions.InvalidMapException;
+import model.Exceptions.InvalidNumberOfPlayersException;
+import model.Exceptions.UnknownElementException;
+import viewmodel.LevelEditorCanvas;
+
+import java.util.Arrays;
+
+/**
+ * A packed representation of the world map. Walls, destinations, crates and the player are kept in flat primitive
+ * arrays indexed by {@code r * cols + c}, so that moving around the map does not touch any Cell or Occupant objects.
+ */
+public class Board {
+    private static final byte WALL = 1;
+    private static final byte DEST = 2;
+    //set on floor squares from which a crate can never reach any destination
+    private static final byte DEAD = 64;
+    private static final int NOT_FROZEN = 0;
+    private static final int FROZEN = 1;
+    private static final int FROZEN_OFF_DEST = 2;
+    //set on squares from which a step in the direction (by ordinal) would leave the map
+    private static final byte[] EDGES = {4, 8, 16, 32};
+
+    private int rows;
+    private int cols;
+
+    //the static contents of every square, a combination of WALL, DEST, DEAD and EDGES
+    private byte[] squares;
+    //the crate id standing on every square, or -1 if there is none
+    private int[] crateAt;
+    //the square of every crate, by crate id
+    private int[] crates;
+    //the squares of every destination
+    private int[] dests;
+    //the index offset of a single step, by direction ordinal
+    private final int[] steps = new int[Map.Direction.values().length];
+
+    //squares of the crates currently treated as walls by the freeze check
+    private boolean[] freezing;
+
+    //Zobrist keys of a crate and of the normalised player on every square
+    private long[] crateKeys;
+    private long[] playerKeys;
+    //the XOR of the keys of every crate square
+    private long crateHash;
+    //the top-left square of the region the player can walk to, or -1 if a push changed it since last computed
+    private int normalizedPlayer = -1;
+    //bitsets for the flood fill finding the player region. Square (r, c) is bit r * stride + c, where stride is
+    //cols + 1, so that every row is followed by a bit which is never free and a row never spills into the next
+    private int stride;
+    private long[] floorBits;
+    private long[] crateBits;
+    //the region the player can walk to, valid while normalizedPlayer is
+    private long[] regionBits;
+
+    //tunnels and goal rooms, shared by all copies
+    private LevelAnalysis analysis;
+
+    private int player;
+    private int lastPushedCrate = -1;
+    //the number of destinations currently holding a crate
+    private int completedDests;
+    //the number of crates currently on dead squares
+    private int deadCrates;
+    //whether every crate has free floor on both of its sides along some axis, by crate id, and how many do
+    private boolean[] movable;
+    private int movableCrates;
+    //bumped whenever a crate moves, so that anything computed for a crate layout knows when it is stale
+    private int crateVersion;
+
+    public Board() {
+    }
+
+    /**
+     * Copies the state of another board. The static contents (walls, destinations, dead squares and keys) never
+     * change after initialization, so they are shared rather than copied.
+     *
+     * @param other The board to copy
+     */
+    private Board(Board other) {
+        shareStatics(other);
+        crateAt = other.crateAt.clone();
+        crates = other.crates.clone();
+        player = other.player;
+        lastPushedCrate = other.lastPushedCrate;
+        completedDests = other.completedDests;
+        deadCrates = other.deadCrates;
+        movable = other.movable.clone();
+        movableCrates = other.movableCrates;
+        crateHash = other.crateHash;
+        crateBits = other.crateBits.clone();
+
+        freezing = new boolean[squares.length];
+        regionBits = new long[floorBits.length];
+        normalizedPlayer = -1;
+    }
+
+    /**
+     * Sets up a board with the crates and the player of a snapshot, sharing the static contents of another board.
+     *
+     * @param other    The board to share the static contents of
+     * @param snapshot A snapshot taken from that board
+     */
+    private Board(Board other, Snapshot snapshot) {
+        shareStatics(other);
+        crates = snapshot.crates.clone();
+        crateAt = new int[squares.length];
+        Arrays.fill(crateAt, -1);
+        for (int id = 0; id < crates.length; id++)
+            crateAt[crates[id]] = id;
+        player = snapshot.player;
+        movable = new boolean[crates.length];
+        crateBits = new long[floorBits.length];
+        freezing = new boolean[squares.length];
+        regionBits = new long[floorBits.length];
+        recount();
+    }
+
+    private void shareStatics(Board other) {
+        rows = other.rows;
+        cols = other.cols;
+        squares = other.squares;
+        dests = other.dests;
+        crateKeys = other.crateKeys;
+        playerKeys = other.playerKeys;
+        stride = other.stride;
+        floorBits = other.floorBits;
+        analysis = other.analysis;
+        System.arraycopy(other.steps, 0, steps, 0, steps.length);
+    }
+
+    /**
+     * @return An independent board in the same state, e.g. for a search to work on
+     */
+    public Board copy() {
+        return new Board(this);
+    }
+
+    /**
+     * Only reads what never changes after initialization from this board, so it may be called while another thread
+     * is moving things around on it.
+     *
+     * @param snapshot A snapshot taken from this board
+     * @return An independent board with the crates and the player where they were when the snapshot was taken
+     */
+    Board copy(Snapshot snapshot) {
+        return new Board(this, snapshot);
+    }
+
+    /**
+     * Instantiates and initializes the packed arrays from the map text representation.
+     *
+     * @param rows The number of rows in the map
+     * @param cols The number of columns in the map
+     * @param rep  The 2d char array read from the map text file
+     * @throws InvalidMapException When the map has unknown chars, or not exactly 1 player
+     */
+    public void initialize(int rows, int cols, char[][] rep) throws InvalidMapException {
+        initialize(rows, cols, rep, true);
+    }
+
+    /**
+     * Instantiates and initializes the packed arrays from the map text representation, optionally without the
+     * {@link LevelAnalysis} searches need, e.g. to only replay moves.
+     *
+     * @param rows    The number of rows in the map
+     * @param cols    The number of columns in the map
+     * @param rep     The 2d char array read from the map text file
+     * @param analyse Whether to set up the analysis of the level. If not, {@link #getAnalysis()} returns null, and
+     *                neither the board nor its copies can be searched or matched.
+     * @throws InvalidMapException When the map has unknown chars, or not exactly 1 player
+     */
+    public void initialize(int rows, int cols, char[][] rep, boolean analyse) throws InvalidMapException {
+        this.rows = rows;
+        this.cols = cols;
+        squares = new byte[rows * cols];
+        crateAt = new int[rows * cols];
+        Arrays.fill(crateAt, -1);
+        freezing = new boolean[rows * cols];
+        crateKeys = new long[rows * cols];
+        playerKeys = new long[rows * cols];
+        for (int i = 0; i < rows * cols; i++) {
+            crateKeys[i] = zobristKey(2L * i);
+            playerKeys[i] = zobristKey(2L * i + 1);
+        }
+        stride = cols + 1;
+        floorBits = new long[(rows * stride + 63) >>> 6];
+        crateBits = new long[floorBits.length];
+        regionBits = new long[floorBits.length];
+        normalizedPlayer = -1;
+        player = -1;
+        lastPushedCrate = -1;
+        for (Map.Direction d : Map.Direction.values())
+            steps[d.ordinal()] = d.getDR() * cols + d.getDC();
+
+        int[] crateBuffer = new int[rows * cols];
+        int[] destBuffer = new int[rows * cols];
+        int numCrates = 0;
+        int numDests = 0;
+
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < cols; c++) {
+                int i = r * cols + c;
+                for (Map.Direction d : Map.Direction.values()) {
+                    int nr = r + d.getDR();
+                    int nc = c + d.getDC();
+                    if (nr < 0 || nr >= rows || nc < 0 || nc >= cols)
+                        squares[i] |= EDGES[d.ordinal()];
+                }
+
+                LevelEditorCanvas.Brush b = LevelEditorCanvas.Brush.fromChar(rep[r][c]);
+                if (b == null)
+                    throw new UnknownElementException("Unknown char: " + rep[r][c]);
+
+                switch (b) {
+                    case WALL:
+                        squares[i] |= WALL;
+                        break;
+                    case DEST:
+                    case PLAYER_ON_DEST:
+                    case CRATE_ON_DEST:
+                        squares[i] |= DEST;
+                        destBuffer[numDests++] = i;
+                        break;
+                }
+                switch (b) {
+                    case PLAYER_ON_TILE:
+                    case PLAYER_ON_DEST:
+                        if (player != -1)
+                            throw new InvalidNumberOfPlayersException(">1 players found!");
+                        player = i;
+                        break;
+                    case CRATE_ON_TILE:
+                    case CRATE_ON_DEST:
+                        crateAt[i] = numCrates;
+                        crateBuffer[numCrates++] = i;
+                        break;
+                }
+            }
+        }
+
+        if (player == -1)
+            throw new InvalidNumberOfPlayersException("0 players found!");
+
+        crates = Arrays.copyOf(crateBuffer, numCrates);
+        dests = Arrays.copyOf(destBuffer, numDests);
+        movable = new boolean[numCrates];
+        for (int i = 0; i < squares.length; i++) {
+            if ((squares[i] & WALL) == 0)
+                setBit(floorBits, i);
+        }
+
+        markDeadSquares();
+        recount();
+        analysis = analyse ? new LevelAnalysis(this, snapshot()) : null;
+    }
+
+    /**
+     * @return The tunnels and goal rooms of the level, shared by every copy of the board, or null if the board was
+     * initialized without them
+     */
+    public LevelAnalysis getAnalysis() {
+        return analysis;
+    }
+
+    /**
+     * @return An immutable copy of the crate positions and the player position
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(crates.clone(), player);
+    }
+
+    /**
+     * Puts the crates and the player back to where they were when the snapshot was taken, in O(crates).
+     *
+     * @param snapshot A snapshot taken from this board, after the level was initialized
+     */
+    public void restore(Snapshot snapshot) {
+        placeCrates(snapshot.crates);
+        player = snapshot.player;
+    }
+
+    /**
+     * Moves every crate to the given square, e.g. to set up the solved state for a search pulling crates backwards.
+     * The player is not moved, so it must not be put under a crate.
+     *
+     * @param positions The square of every crate, by crate id
+     */
+    public void placeCrates(int[] positions) {
+        for (int crate : crates)
+            crateAt[crate] = -1;
+        System.arraycopy(positions, 0, crates, 0, crates.length);
+        for (int id = 0; id < crates.length; id++)
+            crateAt[crates[id]] = id;
+        lastPushedCrate = -1;
+        recount();
+    }
+
+    /**
+     * Recomputes the completed destinations, the crates on dead squares, the movable crates and the hash from the
+     * crate positions.
+     */
+    private void recount() {
+        completedDests = 0;
+        deadCrates = 0;
+        crateHash = 0;
+        Arrays.fill(crateBits, 0);
+        for (int crate : crates) {
+            setBit(crateBits, crate);
+            if ((squares[crate] & DEST) != 0)
+                completedDests++;
+            if ((squares[crate] & DEAD) != 0)
+                deadCrates++;
+            crateHash ^= crateKeys[crate];
+        }
+        movableCrates = 0;
+        for (int id = 0; id < crates.length; id++) {
+            movable[id] = isMovable(crates[id]);
+            if (movable[id])
+                movableCrates++;
+        }
+        normalizedPlayer = -1;
+        crateVersion++;
+    }
+
+    /**
+     * The keys only depend on the square index, so equal states of equal-sized levels hash the same across runs.
+     *
+     * @param n The number of the key
+     * @return A well-mixed 64 bit key (the SplitMix64 finalizer)
+     */
+    private static long zobristKey(long n) {
+        long z = (n + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * @return The Zobrist hash of the current state: the crate positions and the region the player can walk to.
+     * Two states where the player stands on different squares of the same region hash the same.
+     */
+    public long getHash() {
+        return crateHash ^ playerKeys[getNormalizedPlayer()];
+    }
+
+    /**
+     * @return The top-left square (the smallest index) of the region the player can walk to without pushing any
+     * crate. Only recomputed after a push, as walking around does not change the region.
+     */
+    public int getNormalizedPlayer() {
+        if (normalizedPlayer == -1)
+            normalizedPlayer = findRegionTopLeft(player);
+        return normalizedPlayer;
+    }
+
+    /**
+     * @param i The square
+     * @return Whether or not the player can walk to the square without pushing any crate
+     */
+    public boolean isInPlayerRegion(int i) {
+        getNormalizedPlayer();
+        int b = bitOf(i);
+        return (regionBits[b >>> 6] & (1L << b)) != 0;
+    }
+
+    /**
+     * @param i The square
+     * @return The bit of the square in the bitsets
+     */
+    private int bitOf(int i) {
+        return i + i / cols;
+    }
+
+    private void setBit(long[] bits, int i) {
+        int b = bitOf(i);
+        bits[b >>> 6] |= 1L << b;
+    }
+
+    private void clearBit(long[] bits, int i) {
+        int b = bitOf(i);
+        bits[b >>> 6] &= ~(1L << b);
+    }
+
+    /**
+     * Flood fills the region of floor squares without crates containing the start square, 64 squares at a time: every
+     * word of the region grows into its neighbours in the rows above and below, and then along its rows as far as they
+     * are free. The words are swept forwards and backwards until the region stops growing, which usually takes a few
+     * sweeps, as each sweep carries the region along whole corridors.
+     *
+     * @param start The square to start from
+     * @return The smallest index inside the region, which is the lowest bit, as bits keep the order of squares
+     */
+    private int findRegionTopLeft(int start) {
+        Arrays.fill(regionBits, 0);
+        setBit(regionBits, start);
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (int w = 0; w < regionBits.length; w++)
+                grown |= growRegion(w);
+            for (int w = regionBits.length - 1; w >= 0; w--)
+                grown |= growRegion(w);
+        }
+
+        int w = 0;
+        while (regionBits[w] == 0)
+            w++;
+        int b = (w << 6) + Long.numberOfTrailingZeros(regionBits[w]);
+        return b - b / stride;
+    }
+
+    /**
+     * @param w The index of the word
+     * @return Whether the word of the region gained any square
+     */
+    private boolean growRegion(int w) {
+        long[] region = regionBits;
+        long free = floorBits[w] & ~crateBits[w];
+        long old = region[w];
+
+        long next = old | (old << 1) | (old >>> 1);
+        if (w > 0)
+            next |= region[w - 1] >>> 63;
+        if (w + 1 < region.length)
+            next |= region[w + 1] << 63;
+        //the rows above and below are a whole stride of bits away
+        int wordShift = stride >>> 6;
+        int bitShift = stride & 63;
+        int below = w - wordShift;
+        if (below >= 0) {
+            next |= region[below] << bitShift;
+            if (bitShift != 0 && below > 0)
+                next |= region[below - 1] >>> (64 - bitShift);
+        }
+        int above = w + wordShift;
+        if (above < region.length) {
+            next |= region[above] >>> bitShift;
+            if (bitShift != 0 && above + 1 < region.length)
+                next |= region[above + 1] << (64 - bitShift);
+        }
+
+        next = fillRuns(next & free, free) | old;
+        if (next == old)
+            return false;
+        region[w] = next;
+        return true;
+    }
+
+    /**
+     * Spreads the set bits along the runs of free bits they are in, in both directions, with doubling shifts (a
+     * Kogge-Stone fill).
+     *
+     * @param bits The bits to spread, all of which are free
+     * @param free The free bits
+     * @return Every free bit connected to a set bit within the word
+     */
+    private static long fillRuns(long bits, long free) {
+        long up = bits;
+        long down = bits;
+        long upFree = free;
+        long downFree = free;
+        for (int shift = 1; shift < 64; shift <<= 1) {
+            up |= upFree & (up << shift);
+            upFree &= upFree << shift;
+            down |= downFree & (down >>> shift);
+            downFree &= downFree >>> shift;
+        }
+        return up | down;
+    }
+
+    /**
+     * Marks every floor square from which a crate can never be pushed onto a destination. Works backwards from the
+     * destinations: a crate can be pulled from p to p + d if both p + d and p + 2d are floor, where the player stands
+     * while pulling. Crates are ignored, since they can move out of the way. Every floor square not reached is dead.
+     */
+    private void markDeadSquares() {
+        boolean[] alive = new boolean[squares.length];
+        int[] queue = new int[squares.length];
+        int head = 0;
+        int tail = 0;
+        for (int dest : dests) {
+            alive[dest] = true;
+            queue[tail++] = dest;
+        }
+
+        while (head < tail) {
+            int p = queue[head++];
+            for (int dir = 0; dir < steps.length; dir++) {
+                if ((squares[p] & EDGES[dir]) != 0)
+                    continue;
+                int q = p + steps[dir];
+                if (alive[q] || (squares[q] & (WALL | EDGES[dir])) != 0 || (squares[q + steps[dir]] & WALL) != 0)
+                    continue;
+                alive[q] = true;
+                queue[tail++] = q;
+            }
+        }
+
+        for (int i = 0; i < squares.length; i++) {
+            if (!alive[i] && (squares[i] & WALL) == 0)
+                squares[i] |= DEAD;
+        }
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @param r The row coordinate
+     * @param c The column coordinate
+     * @return The index of the square in the packed arrays
+     */
+    public int index(int r, int c) {
+        return r * cols + c;
+    }
+
+    public int getPlayer() {
+        return player;
+    }
+
+    /**
+     * Puts the player on another square, without walking there. Used by searches, which only care about the region
+     * the player is in. The region is not recomputed if the square is inside it.
+     *
+     * @param i The square, which must be floor without a crate
+     */
+    public void setPlayer(int i) {
+        player = i;
+        if (normalizedPlayer != -1 && !isInPlayerRegion(i))
+            normalizedPlayer = -1;
+    }
+
+    /**
+     * @param i   The square
+     * @param dir The ordinal of the direction
+     * @return The square one step away in the direction, or -1 if that is outside the map
+     */
+    public int neighbour(int i, int dir) {
+        return (squares[i] & EDGES[dir]) != 0 ? -1 : i + steps[dir];
+    }
+
+    public int getNumCrates() {
+        return crates.length;
+    }
+
+    /**
+     * @param id The crate id, assigned in row-major order when the map is loaded
+     * @return The square the crate is currently on
+     */
+    public int getCrate(int id) {
+        return crates[id];
+    }
+
+    public int getNumDests() {
+        return dests.length;
+    }
+
+    /**
+     * @param i The index of the destination, in row-major order
+     * @return The square of the destination
+     */
+    public int getDest(int i) {
+        return dests[i];
+    }
+
+    public boolean isWall(int i) {
+        return (squares[i] & WALL) != 0;
+    }
+
+    public boolean isDest(int i) {
+        return (squares[i] & DEST) != 0;
+    }
+
+    /**
+     * A crate pushed onto a dead square can never reach a destination again, so searches can reject such pushes
+     * without looking any further.
+     *
+     * @param i The square
+     * @return Whether or not the square is a dead square
+     */
+    public boolean isDeadSquare(int i) {
+        return (squares[i] & DEAD) != 0;
+    }
+
+    /**
+     * @return Whether or not any crate stands on a dead square
+     */
+    public boolean hasDeadCrate() {
+        return deadCrates > 0;
+    }
+
+    /**
+     * @return Whether or not any crate has free floor on both its left and right, or both above and below it, so
+     * that the player could push it at all if it could get there
+     */
+    public boolean hasMovableCrate() {
+        return movableCrates > 0;
+    }
+
+    /**
+     * @param square The square of a crate
+     * @return Whether or not both horizontal neighbours, or both vertical neighbours, are floor without a crate
+     */
+    private boolean isMovable(int square) {
+        return isFreeNeighbour(square, Map.Direction.LEFT) && isFreeNeighbour(square, Map.Direction.RIGHT)
+                || isFreeNeighbour(square, Map.Direction.UP) && isFreeNeighbour(square, Map.Direction.DOWN);
+    }
+
+    private boolean isFreeNeighbour(int square, Map.Direction d) {
+        if ((squares[square] & EDGES[d.ordinal()]) != 0)
+            return false;
+        int next = square + steps[d.ordinal()];
+        return (squares[next] & WALL) == 0 && crateAt[next] == -1;
+    }
+
+    /**
+     * Updates whether the crates next to a square are movable, after a crate entered or left it.
+     */
+    private void updateNeighboursMovable(int square) {
+        for (int dir = 0; dir < steps.length; dir++) {
+            if ((squares[square] & EDGES[dir]) == 0 && crateAt[square + steps[dir]] != -1)
+                updateMovable(crateAt[square + steps[dir]]);
+        }
+    }
+
+    private void updateMovable(int id) {
+        boolean m = isMovable(crates[id]);
+        if (m != movable[id]) {
+            movable[id] = m;
+            movableCrates += m ? 1 : -1;
+        }
+    }
+
+    /**
+     * Checks whether the crate is part of a frozen cluster: crates which are blocked on both axes by walls, dead
+     * squares or each other, so that none of them can ever move again. Only the crates touching the given crate are
+     * examined, so this is cheap enough to run after every push.
+     *
+     * @param id The id of the crate to start from, usually the one that was just pushed
+     * @return Whether the crate is frozen together with at least one crate which is not on a destination
+     */
+    public boolean isFreezeDeadlocked(int id) {
+        return freezeStatus(crates[id]) == FROZEN_OFF_DEST;
+    }
+
+    /**
+     * While a crate is being examined it is treated as a wall, so that its neighbours do not recurse back into it.
+     *
+     * @param i The square of the crate
+     * @return NOT_FROZEN, or whether all the crates proving the freeze are on destinations
+     */
+    private int freezeStatus(int i) {
+        freezing[i] = true;
+        int status = NOT_FROZEN;
+        int vertical = axisFreezeStatus(i, Map.Direction.UP.ordinal(), Map.Direction.DOWN.ordinal());
+        if (vertical != NOT_FROZEN) {
+            int horizontal = axisFreezeStatus(i, Map.Direction.LEFT.ordinal(), Map.Direction.RIGHT.ordinal());
+            if (horizontal != NOT_FROZEN) {
+                status = Math.max(vertical, horizontal);
+                if ((squares[i] & DEST) == 0)
+                    status = FROZEN_OFF_DEST;
+            }
+        }
+        freezing[i] = false;
+        return status;
+    }
+
+    /**
+     * @param i    The square of the crate
+     * @param dirA The ordinal of the direction to one side of the axis
+     * @param dirB The ordinal of the direction to the other side of the axis
+     * @return NOT_FROZEN if the crate could be pushed along the axis, otherwise the status of the blocking crates
+     */
+    private int axisFreezeStatus(int i, int dirA, int dirB) {
+        if ((squares[i] & (EDGES[dirA] | EDGES[dirB])) != 0)
+            return FROZEN;
+        int a = i + steps[dirA];
+        int b = i + steps[dirB];
+        if ((squares[a] & WALL) != 0 || (squares[b] & WALL) != 0 || freezing[a] || freezing[b])
+            return FROZEN;
+        if ((squares[a] & squares[b] & DEAD) != 0)
+            return FROZEN;
+
+        int status = NOT_FROZEN;
+        if (crateAt[a] != -1)
+            status = freezeStatus(a);
+        if (status == NOT_FROZEN && crateAt[b] != -1)
+            status = freezeStatus(b);
+        return status;
+    }
+
+    public boolean hasCrate(int i) {
+        return crateAt[i] != -1;
+    }
+
+    /**
+     * @param i The square
+     * @return The id of the crate on the square, or -1 if there is none
+     */
+    public int getCrateAt(int i) {
+        return crateAt[i];
+    }
+
+    public int getNumCompletedDests() {
+        return completedDests;
+    }
+
+    /**
+     * @return Whether or not every destination holds a crate
+     */
+    public boolean isAllDestsCompleted() {
+        return completedDests == dests.length;
+    }
+
+    /**
+     * @return The id of the crate pushed (or pulled back, by {@link #undoMove(Map.Direction, boolean)}) by the last
+     * successful move, or -1 if the player just walked
+     */
+    public int getLastPushedCrate() {
+        return lastPushedCrate;
+    }
+
+    /**
+     * @return A number which changes whenever any crate moves, and stays the same while the player only walks
+     */
+    public int getCrateVersion() {
+        return crateVersion;
+    }
+
+    /**
+     * @param r The row coordinate
+     * @param c The column coordinate
+     * @return Whether or not the square is in bounds, not a wall, and without a crate
+     */
+    public boolean isFloorWithoutCrate(int r, int c) {
+        if (r < 0 || r >= rows || c < 0 || c >= cols)
+            return false;
+        int i = r * cols + c;
+        return (squares[i] & WALL) == 0 && crateAt[i] == -1;
+    }
+
+    /**
+     * Attempts to move the player in the specified direction, pushing at most one crate. Allocates nothing.
+     *
+     * @param d The direction the player wants to move
+     * @return Whether the move was successful
+     */
+    public boolean movePlayer(Map.Direction d) {
+        int dir = d.ordinal();
+        int step = steps[dir];
+        int edge = EDGES[dir];
+
+        if ((squares[player] & edge) != 0)
+            return false;
+        int next = player + step;
+        if ((squares[next] & WALL) != 0)
+            return false;
+
+        int id = crateAt[next];
+        if (id != -1) {
+            int target = next + step;
+            if ((squares[next] & edge) != 0 || (squares[target] & WALL) != 0 || crateAt[target] != -1)
+                return false;
+            moveCrate(id, next, target);
+        }
+        lastPushedCrate = id;
+        player = next;
+        return true;
+    }
+
+    /**
+     * Reverses a successful {@link #movePlayer(Map.Direction)}: the player steps back, pulling the crate it pushed
+     * if there was one. The move must be the last one applied to this board.
+     *
+     * @param d      The direction of the move to reverse
+     * @param pushed Whether the move pushed a crate
+     */
+    public void undoMove(Map.Direction d, boolean pushed) {
+        int step = steps[d.ordinal()];
+        int id = -1;
+        if (pushed) {
+            id = crateAt[player + step];
+            moveCrate(id, player + step, player);
+        }
+        lastPushedCrate = id;
+        player -= step;
+    }
+
+    /**
+     * Moves the crate to another square, keeping the counters and the hash in sync.
+     *
+     * @param id   The id of the crate
+     * @param from The square the crate is on
+     * @param to   The square to move the crate to
+     */
+    private void moveCrate(int id, int from, int to) {
+        crateAt[from] = -1;
+        crateAt[to] = id;
+        crates[id] = to;
+        clearBit(crateBits, from);
+        setBit(crateBits, to);
+        //+1 when entering a destination, -1 when leaving one
+        completedDests += ((squares[to] & DEST) - (squares[from] & DEST)) / DEST;
+        deadCrates += ((squares[to] & DEAD) - (squares[from] & DEAD)) / DEAD;
+        crateHash ^= crateKeys[from] ^ crateKeys[to];
+        updateMovable(id);
+        updateNeighboursMovable(from);
+        updateNeighboursMovable(to);
+        normalizedPlayer = -1;
+        crateVersion++;
+    }
+
+    /**
+     * The positions of the crates and the player at some point in time. Walls and destinations are not part of it,
+     * so a snapshot can only be restored to the board it was taken from.
+     */
+    public static class Snapshot {
+        private final int[] crates;
+        private final int player;
+
+        private Snapshot(int[] crates, int player) {
+            this.crates = crates;
+            this.player = player;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package model.Map;
+
+import java.util.Arrays;
+
+/**
+ * A minimum-cost assignment of crates to destinations, where a crate costs the push distance to its destination. Its
+ * cost is a lower bound of the pushes still needed, much tighter than sending every crate to its nearest destination,
+ * since two crates cannot share one. If some crate cannot be assigned any destination it can reach, the level can no
+ * longer be solved.
+ * <p>
+ * Kept with the Hungarian method: after a crate moves, only its row of the cost matrix changes, so it is unassigned and
+ * reassigned with a single augmenting path in O(n^2), instead of solving again in O(n^3).
+ * <p>
+ * If there are more crates than destinations or the other way round, the matrix is padded with free rows or columns.
+ */
+public class CrateMatching {
+    private final Board board;
+    private final LevelAnalysis analysis;
+    private final int size;
+
+    //1-based, as row and column 0 are used by the augmenting path search
+    private final int[][] cost;
+    //the potentials of the rows (crates) and columns (destinations)
+    private final int[] rowPotential;
+    private final int[] columnPotential;
+    //the row assigned to every column, or 0, and the column assigned to every row
+    private final int[] rowOf;
+    private final int[] columnOf;
+    //the square every crate was on when its row of costs was last filled
+    private final int[] squares;
+
+    //scratch space of the augmenting path search
+    private final int[] slack;
+    private final int[] way;
+    private final boolean[] visited;
+
+    /**
+     * @param board The board whose crates to assign. The matching is computed for its current state.
+     */
+    public CrateMatching(Board board) {
+        this.board = board;
+        this.analysis = board.getAnalysis();
+        this.size = Math.max(board.getNumCrates(), board.getNumDests());
+        cost = new int[size + 1][size + 1];
+        rowPotential = new int[size + 1];
+        columnPotential = new int[size + 1];
+        rowOf = new int[size + 1];
+        columnOf = new int[size + 1];
+        squares = new int[board.getNumCrates()];
+        slack = new int[size + 1];
+        way = new int[size + 1];
+        visited = new boolean[size + 1];
+        reset();
+    }
+
+    /**
+     * Takes over a matching solved on a copy of the board, e.g. on another thread, and updates it for the crates moved
+     * on the board since the copy was made, one at a time in O(n^2) each, instead of solving again in O(n^3).
+     *
+     * @param board  The board whose crates to assign
+     * @param solved A matching of a copy of the board, which is not modified
+     */
+    public CrateMatching(Board board, CrateMatching solved) {
+        this.board = board;
+        this.analysis = board.getAnalysis();
+        this.size = solved.size;
+        cost = new int[size + 1][];
+        for (int row = 0; row <= size; row++)
+            cost[row] = solved.cost[row].clone();
+        rowPotential = solved.rowPotential.clone();
+        columnPotential = solved.columnPotential.clone();
+        rowOf = solved.rowOf.clone();
+        columnOf = solved.columnOf.clone();
+        squares = solved.squares.clone();
+        slack = new int[size + 1];
+        way = new int[size + 1];
+        visited = new boolean[size + 1];
+        update();
+    }
+
+    /**
+     * Solves the assignment from scratch for the current state of the board, e.g. after restoring a snapshot.
+     */
+    public void reset() {
+        Arrays.fill(rowPotential, 0);
+        Arrays.fill(columnPotential, 0);
+        Arrays.fill(rowOf, 0);
+        for (int row = 1; row <= size; row++) {
+            fillRow(row);
+            assign(row);
+        }
+    }
+
+    /**
+     * @return A copy of the potentials and the assignment, in O(n). The costs are not copied, as they follow from the
+     * board, so that a search can keep a snapshot with every state still to expand.
+     */
+    public Snapshot snapshot() {
+        int[] values = new int[3 * (size + 1)];
+        System.arraycopy(rowPotential, 0, values, 0, size + 1);
+        System.arraycopy(columnPotential, 0, values, size + 1, size + 1);
+        System.arraycopy(columnOf, 0, values, 2 * (size + 1), size + 1);
+        return new Snapshot(values);
+    }
+
+    /**
+     * Puts the matching back to where it was when the snapshot was taken, in O(n^2) instead of solving again in
+     * O(n^3). The costs are computed again from the board, which must already be back in the state the snapshot was
+     * taken in, e.g. by restoring a board snapshot taken at the same time.
+     *
+     * @param snapshot A snapshot taken from this matching, or from another one of the same level
+     */
+    public void restore(Snapshot snapshot) {
+        for (int row = 1; row <= size; row++)
+            fillRow(row);
+        System.arraycopy(snapshot.values, 0, rowPotential, 0, size + 1);
+        System.arraycopy(snapshot.values, size + 1, columnPotential, 0, size + 1);
+        System.arraycopy(snapshot.values, 2 * (size + 1), columnOf, 0, size + 1);
+        Arrays.fill(rowOf, 0);
+        for (int row = 1; row <= size; row++)
+            rowOf[columnOf[row]] = row;
+    }
+
+    /**
+     * Brings the matching up to date after any number of crates moved, e.g. after the board was restored to another
+     * state, by reassigning the crates which moved one at a time. The closer the board is to the state of the last
+     * update, the cheaper this is: O(n^2) per crate moved, where solving again would take O(n^3).
+     */
+    public void update() {
+        for (int id = 0; id < squares.length; id++) {
+            if (board.getCrate(id) != squares[id])
+                crateMoved(id);
+        }
+    }
+
+    /**
+     * Reassigns a crate after it moved. Every other crate must be where it was at the last update.
+     *
+     * @param id The id of the crate
+     */
+    public void crateMoved(int id) {
+        int row = id + 1;
+        fillRow(row);
+        rowOf[columnOf[row]] = 0;
+        //the lowest potential keeping every reduced cost of the row non-negative
+        int potential = Integer.MAX_VALUE;
+        for (int column = 1; column <= size; column++)
+            potential = Math.min(potential, cost[row][column] - columnPotential[column]);
+        rowPotential[row] = potential;
+        assign(row);
+    }
+
+    /**
+     * @return The total push distance of the assignment
+     */
+    public int getCost() {
+        int total = 0;
+        for (int row = 1; row <= size; row++)
+            total += cost[row][columnOf[row]];
+        return total;
+    }
+
+    /**
+     * @return Whether some crate has to be assigned a destination it cannot reach
+     */
+    public boolean isDeadlocked() {
+        return getCost() >= LevelAnalysis.UNREACHABLE;
+    }
+
+    /**
+     * @param row The row of the crate, or of a padding crate
+     */
+    private void fillRow(int row) {
+        int id = row - 1;
+        if (id < squares.length)
+            squares[id] = board.getCrate(id);
+        for (int column = 1; column <= size; column++) {
+            int dest = column - 1;
+            if (id >= board.getNumCrates() || dest >= board.getNumDests())
+                cost[row][column] = 0;
+            else
+                cost[row][column] = analysis.getPushDistance(dest, board.getCrate(id));
+        }
+    }
+
+    /**
+     * Finds a shortest augmenting path from the unassigned row, adjusting the potentials on the way, and flips the
+     * assignments along it.
+     *
+     * @param row The unassigned row
+     */
+    private void assign(int row) {
+        rowOf[0] = row;
+        int column = 0;
+        Arrays.fill(slack, Integer.MAX_VALUE);
+        Arrays.fill(visited, false);
+        do {
+            visited[column] = true;
+            int from = rowOf[column];
+            int delta = Integer.MAX_VALUE;
+            int next = 0;
+            for (int c = 1; c <= size; c++) {
+                if (visited[c])
+                    continue;
+                int reduced = cost[from][c] - rowPotential[from] - columnPotential[c];
+                if (reduced < slack[c]) {
+                    slack[c] = reduced;
+                    way[c] = column;
+                }
+                if (slack[c] < delta) {
+                    delta = slack[c];
+                    next = c;
+                }
+            }
+            for (int c = 0; c <= size; c++) {
+                if (visited[c]) {
+                    rowPotential[rowOf[c]] += delta;
+                    columnPotential[c] -= delta;
+                } else {
+                    slack[c] -= delta;
+                }
+            }
+            column = next;
+        } while (rowOf[column] != 0);
+
+        do {
+            int previous = way[column];
+            rowOf[column] = rowOf[previous];
+            columnOf[rowOf[column]] = column;
+            column = previous;
+        } while (column != 0);
+    }
+
+    /**
+     * The state of a matching at some point in time, which can only be restored to a matching of the same level, on a
+     * board in the same state.
+     */
+    public static class Snapshot {
+        //the row potentials, the column potentials and the column assigned to every row, one after another
+        private final int[] values;
+
+        private Snapshot(int[] values) {
+            this.values = values;
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package model.Map;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Remembers the deadlocks proven by {@link PatternSearch}: arrangements of walls, crates and destinations in the 5x5
+ * window around a pushed crate which no sequence of pushes can resolve, whatever lies outside the window. Once proven,
+ * such a deadlock is recognised with a single lookup on any level, in any later session. These are the deadlocks
+ * freeze detection cannot see, e.g. crates which can still be pushed, but never all onto destinations or out of the
+ * window.
+ * <p>
+ * A pattern only holds while the player can walk out of the window, as that is where its proof starts from, so
+ * {@link #matches(Board, int)} checks that too. Every pattern is stored in all 8 rotations and reflections of the
+ * window, since the proof does not depend on orientation.
+ * <p>
+ * The patterns are kept in {@code ~/.sokoban/deadlock-patterns.bin}, or in the file named by the
+ * {@code sokoban.deadlockPatterns} system property, after a header with the format version. Every pattern read back is
+ * proven again, so a damaged or foreign file cannot make a level look deadlocked.
+ * <p>
+ * Lookups are lock-free and allocation-free, so searches on several threads can share the patterns. As most windows
+ * are not deadlocked, patterns are learned rarely, so each is added to a copy of the table and appended to the file
+ * right away, on the thread which proved it.
+ */
+public class DeadlockPatterns {
+    static final int SIZE = 5;
+    static final int CELLS = SIZE * SIZE;
+    static final int RADIUS = SIZE / 2;
+    static final int MIDDLE = RADIUS * SIZE + RADIUS;
+    //the squares of the window, as digits of a base 5 key
+    static final int FLOOR = 0;
+    static final int WALL = 1;
+    static final int CRATE = 2;
+    static final int CRATE_ON_DEST = 3;
+    static final int DEST = 4;
+    private static final int DIGITS = 5;
+
+    //"SOKOPATS", followed by the version of the format
+    private static final long MAGIC = 0x534F4B4F50415453L;
+    private static final int VERSION = 2;
+
+    //5 to the power of every square of the window, and of the whole window, which no key reaches
+    private static final long[] POWERS = new long[CELLS + 1];
+    static final int ORIENTATIONS = 8;
+    //the window square each square moves to, for every rotation and reflection
+    private static final int[][] SYMMETRIES = new int[ORIENTATIONS][CELLS];
+
+    static {
+        POWERS[0] = 1;
+        for (int k = 1; k <= CELLS; k++)
+            POWERS[k] = POWERS[k - 1] * DIGITS;
+        for (int s = 0; s < SYMMETRIES.length; s++) {
+            for (int r = 0; r < SIZE; r++) {
+                for (int c = 0; c < SIZE; c++) {
+                    int tr = (s & 1) != 0 ? c : r;
+                    int tc = (s & 1) != 0 ? r : c;
+                    if ((s & 2) != 0)
+                        tr = SIZE - 1 - tr;
+                    if ((s & 4) != 0)
+                        tc = SIZE - 1 - tc;
+                    SYMMETRIES[s][r * SIZE + c] = tr * SIZE + tc;
+                }
+            }
+        }
+    }
+
+    //created after the tables above, which loading the patterns needs
+    private static final DeadlockPatterns ourInstance = new DeadlockPatterns();
+
+    private final Path file;
+    private boolean persisting = true;
+    //whether the file starts with a valid header, so that new patterns can be appended to it
+    private boolean headerWritten;
+    //open addressing set of keys, replaced as a whole by every insertion; 0 marks an empty slot
+    private volatile long[] keys = new long[1 << 10];
+    private volatile int size;
+
+    private DeadlockPatterns() {
+        String name = System.getProperty("sokoban.deadlockPatterns");
+        file = name != null ? Paths.get(name)
+                : Paths.get(System.getProperty("user.home"), ".sokoban", "deadlock-patterns.bin");
+        load();
+    }
+
+    public static DeadlockPatterns getInstance() {
+        return ourInstance;
+    }
+
+    /**
+     * @return The number of patterns known, counting every rotation and reflection
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param board The board the crate was just pushed on
+     * @param id    The id of the crate
+     * @return Whether the window around the crate is a known deadlock, and the player can walk out of it
+     */
+    public boolean matches(Board board, int id) {
+        int crate = board.getCrate(id);
+        return contains(keys, keyAround(board, crate)) && canLeave(board, crate);
+    }
+
+    boolean contains(long key) {
+        return contains(keys, key);
+    }
+
+    /**
+     * Adds a pattern proven by a search in all orientations, and appends it to the file.
+     *
+     * @param key The key of the window, with the pushed crate in the middle
+     */
+    synchronized void learn(long key) {
+        //several threads may have proven the same deadlock before it was added
+        if (contains(keys, key))
+            return;
+        keys = add(keys.clone(), key);
+        if (persisting)
+            save(key);
+    }
+
+    /**
+     * @param board The board
+     * @param i     The square in the middle of the window
+     * @return The key of the window, one base 5 digit per square, with squares off the board taken as walls
+     */
+    static long keyAround(Board board, int i) {
+        int row = i / board.getCols();
+        int col = i % board.getCols();
+        long key = 0;
+        for (int k = 0; k < CELLS; k++) {
+            int br = row + k / SIZE - RADIUS;
+            int bc = col + k % SIZE - RADIUS;
+            int cell;
+            if (br < 0 || br >= board.getRows() || bc < 0 || bc >= board.getCols()) {
+                cell = WALL;
+            } else {
+                int j = board.index(br, bc);
+                if (board.isWall(j))
+                    cell = WALL;
+                else if (board.hasCrate(j))
+                    cell = board.isDest(j) ? CRATE_ON_DEST : CRATE;
+                else
+                    cell = board.isDest(j) ? DEST : FLOOR;
+            }
+            key += cell * POWERS[k];
+        }
+        return key;
+    }
+
+    /**
+     * @param key The key of a window
+     * @param k   The square of the window
+     * @return What is on the square, e.g. {@link #WALL}
+     */
+    static int cellAt(long key, int k) {
+        return (int) (key / POWERS[k] % DIGITS);
+    }
+
+    /**
+     * @param board The board
+     * @param crate The square in the middle of the window
+     * @return Whether the player can walk out of the window without leaving it on the way, or is outside already
+     */
+    static boolean canLeave(Board board, int crate) {
+        int rows = board.getRows();
+        int cols = board.getCols();
+        int row = crate / cols;
+        int col = crate % cols;
+        int dr = board.getPlayer() / cols - row + RADIUS;
+        int dc = board.getPlayer() % cols - col + RADIUS;
+        if (dr < 0 || dr >= SIZE || dc < 0 || dc >= SIZE)
+            return true;
+        int free = 0;
+        for (int k = 0; k < CELLS; k++) {
+            int br = row + k / SIZE - RADIUS;
+            int bc = col + k % SIZE - RADIUS;
+            if (br >= 0 && br < rows && bc >= 0 && bc < cols && board.isFloorWithoutCrate(br, bc))
+                free |= 1 << k;
+        }
+        return (PatternSearch.flood(1 << (dr * SIZE + dc), free) & PatternSearch.BORDER) != 0;
+    }
+
+    private static boolean contains(long[] table, long key) {
+        int mask = table.length - 1;
+        for (int slot = spread(key) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+            if (table[slot] == key)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Appends a pattern to the file, replacing the file with a new one first if it did not start with a valid header.
+     */
+    private void save(long key) {
+        try {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            OutputStream out = headerWritten
+                    ? Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+                    : Files.newOutputStream(file);
+            try (DataOutputStream data = new DataOutputStream(out)) {
+                if (!headerWritten) {
+                    data.writeLong(MAGIC);
+                    data.writeInt(VERSION);
+                    headerWritten = true;
+                }
+                data.writeLong(key);
+            }
+        } catch (IOException e) {
+            //the patterns still work for this session
+            e.printStackTrace();
+            persisting = false;
+        }
+    }
+
+    /**
+     * Reads the patterns saved by earlier sessions. A file without the expected header is ignored and replaced when
+     * the next pattern is learned, and patterns which cannot be proven again are skipped.
+     */
+    private void load() {
+        if (!Files.exists(file))
+            return;
+        long[] table = keys;
+        PatternSearch search = new PatternSearch(this);
+        try (InputStream in = Files.newInputStream(file);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in))) {
+            if (data.readLong() != MAGIC || data.readInt() != VERSION)
+                return;
+            headerWritten = true;
+            while (true) {
+                long key = data.readLong();
+                if (isValid(key) && !contains(table, key) && search.proves(key))
+                    table = add(table, key);
+            }
+        } catch (EOFException e) {
+            //a truncated header or last pattern is ignored
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            keys = table;
+        }
+    }
+
+    /**
+     * @return Whether the key is a window at all, with a crate in the middle
+     */
+    private static boolean isValid(long key) {
+        if (key <= 0 || key >= POWERS[CELLS])
+            return false;
+        int middle = cellAt(key, MIDDLE);
+        return middle == CRATE || middle == CRATE_ON_DEST;
+    }
+
+    /**
+     * @param table The table to add the pattern to, in all orientations
+     * @return The table, or a bigger copy of it if it had to grow
+     */
+    private long[] add(long[] table, long key) {
+        for (int[] symmetry : SYMMETRIES) {
+            if (insert(table, transform(key, symmetry)))
+                size++;
+            if (size * 2 > table.length)
+                table = rehash(table);
+        }
+        return table;
+    }
+
+    /**
+     * @param key The key of a window
+     * @param s   The number of the rotation or reflection, below {@link #ORIENTATIONS}
+     * @return The key of the window rotated or reflected
+     */
+    static long orientation(long key, int s) {
+        return transform(key, SYMMETRIES[s]);
+    }
+
+    private static long transform(long key, int[] symmetry) {
+        long transformed = 0;
+        for (int k = 0; k < CELLS; k++)
+            transformed += cellAt(key, k) * POWERS[symmetry[k]];
+        return transformed;
+    }
+
+    private static boolean insert(long[] table, long key) {
+        int mask = table.length - 1;
+        int slot = spread(key) & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == key)
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        return true;
+    }
+
+    private static long[] rehash(long[] table) {
+        long[] bigger = new long[table.length * 2];
+        for (long key : table) {
+            if (key != 0)
+                insert(bigger, key);
+        }
+        return bigger;
+    }
+
+    static int spread(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
@@ -0,0 +1,466 @@
+package model.Map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Static facts about a level which searches use to push crates several squares at a time (macro pushes). Shared by
+ * every copy of the board of the level. Tunnels are found when the level is initialized; goal rooms only when a
+ * search first asks for them, as finding them plans pushes into every candidate room, which loading a level or
+ * playing it never needs.
+ * <ul>
+ * <li>Tunnels: squares with walls on both sides of an axis. A crate pushed along a tunnel, with the player in the
+ * tunnel behind it, can only be pushed further, so it might as well be pushed right through.</li>
+ * <li>Goal rooms: areas holding destinations but no crates at the start, which can only be entered through a single
+ * square, the entrance. A crate pushed onto the entrance can be driven straight to the next destination of the room,
+ * following a fill order which never blocks the destinations still empty.</li>
+ * </ul>
+ * Also holds the push distances from every floor square to every destination, for lower bounds such as
+ * {@link CrateMatching}, also only computed when first asked for: they take 2 bytes per floor square and destination.
+ */
+public class LevelAnalysis {
+    //small enough that summing one per crate cannot overflow
+    public static final int UNREACHABLE = 1 << 20;
+    //the push distance table entry of squares from which a destination cannot be reached. Longer distances are stored
+    //as the one below it, which still keeps them a lower bound.
+    private static final char NO_PUSHES = Character.MAX_VALUE;
+
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+    //bits of tunnelAxes
+    private static final byte VERTICAL = 1;
+    private static final byte HORIZONTAL = 2;
+
+    private final byte[] tunnelAxes;
+    //the board of the level and its state at the start, to find the goal rooms in
+    private final Board board;
+    private final Board.Snapshot start;
+    //null until first asked for
+    private volatile GoalRooms goalRooms;
+    private volatile PushDistances pushDistances;
+
+    /**
+     * @param board A freshly initialized board
+     * @param start The crates and the player on the board at the start of the level
+     */
+    LevelAnalysis(Board board, Board.Snapshot start) {
+        this.board = board;
+        this.start = start;
+        int size = board.getRows() * board.getCols();
+        tunnelAxes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            if (board.isWall(i))
+                continue;
+            if (isWallOrEdge(board, i, Map.Direction.LEFT) && isWallOrEdge(board, i, Map.Direction.RIGHT))
+                tunnelAxes[i] |= VERTICAL;
+            if (isWallOrEdge(board, i, Map.Direction.UP) && isWallOrEdge(board, i, Map.Direction.DOWN))
+                tunnelAxes[i] |= HORIZONTAL;
+        }
+    }
+
+    /**
+     * @param dest The index of the destination, as in {@link Board#getDest(int)}
+     * @param i    The floor square
+     * @return The minimum number of pushes to get a crate from the square to the destination if no other crate were
+     * in the way, or UNREACHABLE
+     */
+    public int getPushDistance(int dest, int i) {
+        PushDistances distances = pushDistances();
+        char pushes = distances.table[dest][distances.floorIndex[i]];
+        return pushes == NO_PUSHES ? UNREACHABLE : pushes;
+    }
+
+    /**
+     * @param i   The square
+     * @param dir The ordinal of the direction a crate is pushed in
+     * @return Whether the square has walls on both sides of the push
+     */
+    public boolean isTunnel(int i, int dir) {
+        byte axis = DIRECTIONS[dir].getDC() == 0 ? VERTICAL : HORIZONTAL;
+        return (tunnelAxes[i] & axis) != 0;
+    }
+
+    public int getNumRooms() {
+        return goalRooms().entrances.length;
+    }
+
+    /**
+     * @param i The square
+     * @return The goal room the square belongs to, or -1. Entrances do not belong to their rooms.
+     */
+    public int getRoom(int i) {
+        return goalRooms().roomOf[i];
+    }
+
+    /**
+     * @param i The square
+     * @return The goal room the square is the entrance of, or -1
+     */
+    public int getRoomEnteredAt(int i) {
+        return goalRooms().roomEnteredAt[i];
+    }
+
+    public int getRoomEntrance(int room) {
+        return goalRooms().entrances[room];
+    }
+
+    /**
+     * @param room The goal room
+     * @param k    The number of destinations already filled
+     * @return The k + 1-th destination to fill
+     */
+    public int getRoomDest(int room, int k) {
+        return goalRooms().fillOrders[room][k];
+    }
+
+    /**
+     * @param room The goal room
+     * @return The number of destinations in the room
+     */
+    public int getRoomSize(int room) {
+        return goalRooms().fillOrders[room].length;
+    }
+
+    /**
+     * @return The goal rooms, found on the first call. Searches on several threads may ask at once, so only the first
+     * one finds them and the others wait for it.
+     */
+    private GoalRooms goalRooms() {
+        GoalRooms rooms = goalRooms;
+        if (rooms == null) {
+            synchronized (this) {
+                rooms = goalRooms;
+                if (rooms == null) {
+                    //on a board of its own, as the board of the level may be in play on another thread
+                    rooms = new GoalRooms(board.copy(start));
+                    goalRooms = rooms;
+                }
+            }
+        }
+        return rooms;
+    }
+
+    /**
+     * @return The push distances, computed on the first call. As with the goal rooms, only the first of several
+     * threads asking at once computes them.
+     */
+    private PushDistances pushDistances() {
+        PushDistances distances = pushDistances;
+        if (distances == null) {
+            synchronized (this) {
+                distances = pushDistances;
+                if (distances == null) {
+                    distances = new PushDistances(board);
+                    pushDistances = distances;
+                }
+            }
+        }
+        return distances;
+    }
+
+    /**
+     * The push distances from every floor square to every destination. Walls never hold a crate, so they have no
+     * entries: floor squares are numbered in row-major order.
+     */
+    private static class PushDistances {
+        //the number of every floor square, or -1 for walls
+        private final int[] floorIndex;
+        //the pushes from every floor square, by its number, to each destination, by destination index
+        private final char[][] table;
+
+        /**
+         * @param board Any board of the level, as only its walls are read
+         */
+        PushDistances(Board board) {
+            floorIndex = new int[board.getRows() * board.getCols()];
+            int numFloors = 0;
+            for (int i = 0; i < floorIndex.length; i++)
+                floorIndex[i] = board.isWall(i) ? -1 : numFloors++;
+            table = new char[board.getNumDests()][];
+            int[] queue = new int[numFloors];
+            for (int dest = 0; dest < table.length; dest++) {
+                table[dest] = new char[numFloors];
+                findPushDistances(board, table[dest], board.getDest(dest), queue);
+            }
+        }
+
+        /**
+         * Pulls a crate away from the destination in every possible way: pulling it from p to q needs q and the
+         * square behind q to be floor, for the player to stand on.
+         */
+        private void findPushDistances(Board board, char[] distances, int dest, int[] queue) {
+            Arrays.fill(distances, NO_PUSHES);
+            int head = 0;
+            int tail = 0;
+            distances[floorIndex[dest]] = 0;
+            queue[tail++] = dest;
+            while (head < tail) {
+                int p = queue[head++];
+                char next = (char) Math.min(distances[floorIndex[p]] + 1, NO_PUSHES - 1);
+                for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+                    int q = board.neighbour(p, dir);
+                    if (q == -1 || board.isWall(q) || distances[floorIndex[q]] != NO_PUSHES)
+                        continue;
+                    int behind = board.neighbour(q, dir);
+                    if (behind == -1 || board.isWall(behind))
+                        continue;
+                    distances[floorIndex[q]] = next;
+                    queue[tail++] = q;
+                }
+            }
+        }
+    }
+
+    private static boolean isWallOrEdge(Board board, int i, Map.Direction d) {
+        int j = board.neighbour(i, d.ordinal());
+        return j == -1 || board.isWall(j);
+    }
+
+    /**
+     * The goal rooms of a level, found all at once.
+     */
+    private static class GoalRooms {
+        //the goal room of every square, or -1 if it is in none
+        private final int[] roomOf;
+        //the goal room every square is the entrance of, or -1
+        private final int[] roomEnteredAt;
+        private final int[] entrances;
+        private final int[][] fillOrders;
+
+        /**
+         * @param board A board in the state of the start of the level
+         */
+        GoalRooms(Board board) {
+            int size = board.getRows() * board.getCols();
+            roomOf = new int[size];
+            Arrays.fill(roomOf, -1);
+            roomEnteredAt = new int[size];
+            Arrays.fill(roomEnteredAt, -1);
+            List<Integer> entranceList = new ArrayList<>();
+            List<int[]> orderList = new ArrayList<>();
+            findGoalRooms(board, roomOf, entranceList, orderList);
+            entrances = new int[entranceList.size()];
+            fillOrders = new int[entranceList.size()][];
+            for (int room = 0; room < entrances.length; room++) {
+                entrances[room] = entranceList.get(room);
+                fillOrders[room] = orderList.get(room);
+                roomEnteredAt[entrances[room]] = room;
+            }
+        }
+    }
+
+    /**
+     * Finds every square whose removal cuts off part of the floor reachable by the player: those parts form a room if
+     * they hold destinations but no crates. Smaller rooms are preferred, so a room behind a corridor gets the entrance
+     * closest to it, and rooms never overlap. Rooms without a fill order that can be proven to work are dropped.
+     * <p>
+     * The cut squares are found with a single depth-first search from the player (Tarjan's articulation points): the
+     * squares cut off by a square are the subtrees of its children which cannot climb above it, and every subtree
+     * takes up a range of the preorder. So the candidates are counted and checked in O(1) each, and only the squares
+     * of those not overlapping a room already taken are listed, keeping this near linear on large maps.
+     */
+    private static void findGoalRooms(Board board, int[] roomOf, List<Integer> entranceList, List<int[]> orderList) {
+        int size = roomOf.length;
+        //the preorder number of every square, or -1 if the player cannot reach it, and the square of every number
+        int[] preorder = new int[size];
+        Arrays.fill(preorder, -1);
+        int[] squareAt = new int[size];
+        //the lowest preorder number reachable from the subtree of every square through a single back edge
+        int[] low = new int[size];
+        //the end of the preorder range of the subtree of every square, exclusive
+        int[] subtreeEnd = new int[size];
+        int[] parent = new int[size];
+        int numVisited = 0;
+
+        int[] stack = new int[size];
+        int[] nextDir = new int[size];
+        int depth = 0;
+        int root = board.getPlayer();
+        preorder[root] = low[root] = numVisited;
+        squareAt[numVisited++] = root;
+        parent[root] = -1;
+        stack[depth++] = root;
+        while (depth > 0) {
+            int p = stack[depth - 1];
+            if (nextDir[p] == DIRECTIONS.length) {
+                depth--;
+                subtreeEnd[p] = numVisited;
+                if (parent[p] != -1)
+                    low[parent[p]] = Math.min(low[parent[p]], low[p]);
+                continue;
+            }
+            int q = board.neighbour(p, nextDir[p]++);
+            if (q == -1 || board.isWall(q))
+                continue;
+            if (preorder[q] == -1) {
+                preorder[q] = low[q] = numVisited;
+                squareAt[numVisited++] = q;
+                parent[q] = p;
+                stack[depth++] = q;
+            } else if (q != parent[p]) {
+                low[p] = Math.min(low[p], preorder[q]);
+            }
+        }
+
+        //the number of destinations and crates before every preorder number
+        int[] destsBefore = new int[numVisited + 1];
+        int[] cratesBefore = new int[numVisited + 1];
+        for (int k = 0; k < numVisited; k++) {
+            destsBefore[k + 1] = destsBefore[k] + (board.isDest(squareAt[k]) ? 1 : 0);
+            cratesBefore[k + 1] = cratesBefore[k] + (board.hasCrate(squareAt[k]) ? 1 : 0);
+        }
+
+        //the squares cut off by an entrance, as the child of the entrance heading them
+        List<Integer> candidates = new ArrayList<>();
+        for (int k = 1; k < numVisited; k++) {
+            int head = squareAt[k];
+            int entrance = parent[head];
+            if (low[head] < preorder[entrance] || board.isDest(entrance) || board.hasCrate(entrance))
+                continue;
+            int end = subtreeEnd[head];
+            if (destsBefore[end] - destsBefore[k] > 0 && cratesBefore[end] - cratesBefore[k] == 0)
+                candidates.add(head);
+        }
+        //smallest first, then by entrance and direction, as when every square was tried in turn
+        candidates.sort((a, b) -> {
+            int bySize = Integer.compare(subtreeEnd[a] - preorder[a], subtreeEnd[b] - preorder[b]);
+            if (bySize != 0)
+                return bySize;
+            int byEntrance = Integer.compare(parent[a], parent[b]);
+            return byEntrance != 0 ? byEntrance : Integer.compare(directionTo(board, parent[a], a),
+                    directionTo(board, parent[b], b));
+        });
+
+        //the taken squares, counted by preorder number in a Fenwick tree
+        int[] taken = new int[numVisited + 1];
+        PushPlanner planner = new PushPlanner(board);
+        boolean[] inRoom = new boolean[size];
+        boolean[] blocked = new boolean[size];
+        int[] queue = new int[size];
+        for (int head : candidates) {
+            int entrance = parent[head];
+            int from = preorder[head];
+            int to = subtreeEnd[head];
+            if (countTaken(taken, preorder[entrance], preorder[entrance] + 1) > 0 || countTaken(taken, from, to) > 0)
+                continue;
+
+            int[] candidate = new int[to - from + 1];
+            candidate[0] = entrance;
+            listSubtree(board, preorder, head, from, to, queue);
+            System.arraycopy(queue, 0, candidate, 1, to - from);
+            int[] order = findFillOrder(board, candidate, planner, inRoom, blocked);
+            if (order == null)
+                continue;
+
+            for (int k = 1; k < candidate.length; k++) {
+                markTaken(taken, preorder[candidate[k]]);
+                roomOf[candidate[k]] = entranceList.size();
+            }
+            markTaken(taken, preorder[entrance]);
+            entranceList.add(entrance);
+            orderList.add(order);
+        }
+    }
+
+    private static int directionTo(Board board, int from, int to) {
+        for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+            if (board.neighbour(from, dir) == to)
+                return dir;
+        }
+        return -1;
+    }
+
+    private static void markTaken(int[] taken, int k) {
+        for (int i = k + 1; i < taken.length; i += i & -i)
+            taken[i]++;
+    }
+
+    /**
+     * @return The number of taken squares with a preorder number in [from, to)
+     */
+    private static int countTaken(int[] taken, int from, int to) {
+        int count = 0;
+        for (int i = to; i > 0; i -= i & -i)
+            count += taken[i];
+        for (int i = from; i > 0; i -= i & -i)
+            count -= taken[i];
+        return count;
+    }
+
+    /**
+     * Lists the squares of a subtree in breadth-first order from its head: they are exactly the floor squares with a
+     * preorder number in its range.
+     */
+    private static void listSubtree(Board board, int[] preorder, int head, int from, int to, int[] queue) {
+        int first = 0;
+        int tail = 0;
+        queue[tail++] = head;
+        //a square is queued when its preorder number is, so mark them by negating it for the duration of the search
+        preorder[head] = -preorder[head] - 2;
+        while (first < tail) {
+            int p = queue[first++];
+            for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+                int q = board.neighbour(p, dir);
+                if (q == -1 || preorder[q] < from || preorder[q] >= to)
+                    continue;
+                preorder[q] = -preorder[q] - 2;
+                queue[tail++] = q;
+            }
+        }
+        for (int k = 0; k < tail; k++)
+            preorder[queue[k]] = -preorder[queue[k]] - 2;
+    }
+
+    /**
+     * Orders the destinations of a room farthest from the entrance first, then checks that every crate can be pushed
+     * from the entrance to its destination with the earlier ones filled, starting from every side of the entrance
+     * outside the room.
+     *
+     * @param room    The entrance followed by the squares of the room, in breadth-first order from the entrance
+     * @param planner A planner for the board
+     * @param inRoom  Scratch space, all false, and left so
+     * @param blocked Scratch space, all false, and left so
+     * @return The destinations in fill order, or null if that order does not work
+     */
+    private static int[] findFillOrder(Board board, int[] room, PushPlanner planner, boolean[] inRoom,
+                                       boolean[] blocked) {
+        int entrance = room[0];
+        int numDests = 0;
+        int[] order = new int[room.length];
+        //the room is listed in breadth-first order from the entrance, so walking it backwards is farthest first
+        for (int k = room.length - 1; k > 0; k--) {
+            if (board.isDest(room[k]))
+                order[numDests++] = room[k];
+        }
+        order = Arrays.copyOf(order, numDests);
+
+        for (int k = 1; k < room.length; k++)
+            inRoom[room[k]] = true;
+        int[] result = fillsInOrder(board, entrance, order, planner, inRoom, blocked) ? order : null;
+        for (int k = 1; k < room.length; k++) {
+            inRoom[room[k]] = false;
+            blocked[room[k]] = false;
+        }
+        return result;
+    }
+
+    private static boolean fillsInOrder(Board board, int entrance, int[] order, PushPlanner planner, boolean[] inRoom,
+                                        boolean[] blocked) {
+        for (int dest : order) {
+            boolean entered = false;
+            for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+                int inside = board.neighbour(entrance, dir);
+                int outside = board.neighbour(entrance, DIRECTIONS[dir].getOpposite().ordinal());
+                if (inside == -1 || outside == -1 || !inRoom[inside] || inRoom[outside] || board.isWall(outside))
+                    continue;
+                entered = true;
+                if (planner.plan(blocked, outside, entrance, dest) == null)
+                    return false;
+            }
+            if (!entered)
+                return false;
+            blocked[dest] = true;
+        }
+        return true;
+    }
+}
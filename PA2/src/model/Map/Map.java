@@ -1,30 +1,61 @@
 package model.Map;
 
 import model.Exceptions.InvalidMapException;
-import model.Exceptions.InvalidNumberOfPlayersException;
-import model.Exceptions.UnknownElementException;
 import model.Map.Occupant.Crate;
+import model.Map.Occupant.Occupant;
 import model.Map.Occupant.Player;
 import model.Map.Occupiable.DestTile;
 import model.Map.Occupiable.Occupiable;
 import model.Map.Occupiable.Tile;
-import viewmodel.LevelEditorCanvas;
 
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * A class holding a the 2D array of cells, representing the world map
+ * A class holding a the 2D array of cells, representing the world map. The state lives in a packed {@link Board},
+ * which does the actual move logic and which the renderers read. The cells are only a view of it for callers which
+ * still want objects per square: they are built on the first call to {@link #getCells()}, and kept in sync from then
+ * on, so large maps which are only played and drawn never pay for an object per square.
  */
 public class Map {
+    //a single daemon thread solving the first crate matching of the levels about to be played, see prepareMatching
+    private static final ExecutorService preparer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "matching");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Board board = new Board();
+    //null until first asked for
     private Cell[][] cells;
-    private ArrayList<DestTile> destTiles = new ArrayList<>();
+    private ArrayList<DestTile> destTiles;
     private ArrayList<Crate> crates = new ArrayList<>();
 
     private Player player;
+    private int lastPushedCrate = -1;
+    //kept up to date on every push, to detect crates which cannot all reach a destination. Null until a deadlock
+    //check first needs it, or prepareMatching solved it, as it needs the push distances of the level, which only
+    //playing it does.
+    private CrateMatching matching;
+    //the matching being solved on a copy of the board by prepareMatching, until it is taken over
+    private Future<CrateMatching> preparing;
+    //set if solving it failed, e.g. as the push distances of a huge level did not fit in memory
+    private boolean matchingFailed;
+
+    //the squares whose cells changed since the map was last drawn, each listed once, so that only those are redrawn
+    private int[] dirtySquares;
+    private boolean[] isDirty;
+    private int numDirty;
+    //whether every cell has to be drawn, as the map was never drawn yet
+    private boolean allDirty;
 
     /**
-     * This function instantiates and initializes cells, destTiles, crates to the correct map elements (e.g. the # char
-     * means a wall, @ the player, etc).
+     * This function initializes the board, and instantiates the crates and the player (e.g. the # char means a wall,
+     * @ the player, etc). The cells and destTiles are only instantiated when first asked for.
      *
      * @param rows The number of rows in the map
      * @param cols The number of columns in the map
@@ -32,74 +63,69 @@ public class Map {
      * @throws InvalidMapException Throw the correct exception when necessary. There should only be 1 player.
      */
     public void initialize(int rows, int cols, char[][] rep) throws InvalidMapException {
-        cells = new Cell[rows][cols];
-        destTiles = new ArrayList<>();
+        cells = null;
+        destTiles = null;
         crates = new ArrayList<>();
-        player = null;
+        lastPushedCrate = -1;
+
+        board.initialize(rows, cols, rep);
+        matching = null;
+        if (preparing != null)
+            preparing.cancel(true);
+        preparing = null;
+        matchingFailed = false;
+        dirtySquares = new int[rows * cols];
+        isDirty = new boolean[rows * cols];
+        numDirty = 0;
+        allDirty = true;
 
+        //crate ids are given in row-major order, as the crates used to be listed
+        for (int id = 0; id < board.getNumCrates(); id++)
+            crates.add(new Crate(board.getCrate(id) / cols, board.getCrate(id) % cols));
+        player = new Player(board.getPlayer() / cols, board.getPlayer() % cols);
+    }
+
+    /**
+     * Instantiates a cell for every square, with the crates and the player on them.
+     */
+    private void buildCells() {
+        int rows = board.getRows();
+        int cols = board.getCols();
+        cells = new Cell[rows][cols];
+        destTiles = new ArrayList<>();
         for (int r = 0; r < rows; r++) {
             for (int c = 0; c < cols; c++) {
-                LevelEditorCanvas.Brush b = LevelEditorCanvas.Brush.fromChar(rep[r][c]);
-                if (b == null)
-                    throw new UnknownElementException("Unknown char: " + rep[r][c]);
-
-                switch (b) {
-                    case TILE:
-                        cells[r][c] = new Tile();
-                        break;
-                    case PLAYER_ON_TILE:
-                        if (player == null) {
-                            player = new Player(r, c);
-                            Tile t = new Tile();
-                            cells[r][c] = t;
-                            t.setOccupant(player);
-                        } else {
-                            throw new InvalidNumberOfPlayersException(">1 players found!");
-                        }
-                        break;
-                    case PLAYER_ON_DEST:
-                        if (player == null) {
-                            player = new Player(r, c);
-                            DestTile t = new DestTile();
-                            destTiles.add(t);
-                            cells[r][c] = t;
-                            t.setOccupant(player);
-                        } else {
-                            throw new InvalidNumberOfPlayersException(">1 players found!");
-                        }
-                        break;
-                    case CRATE_ON_TILE:
-                        Crate crate = new Crate(r, c);
-                        crates.add(crate);
-                        Tile t = new Tile();
-                        cells[r][c] = t;
-                        t.setOccupant(crate);
-                        break;
-                    case CRATE_ON_DEST:
-                        Crate crate2 = new Crate(r, c);
-                        crates.add(crate2);
-                        DestTile t2 = new DestTile();
-                        destTiles.add(t2);
-                        cells[r][c] = t2;
-                        t2.setOccupant(crate2);
-                        break;
-                    case WALL:
-                        cells[r][c] = new Wall();
-                        break;
-                    case DEST:
-                        DestTile d = new DestTile();
-                        cells[r][c] = d;
-                        destTiles.add(d);
-                        break;
+                int i = board.index(r, c);
+                if (board.isWall(i)) {
+                    cells[r][c] = new Wall();
+                    continue;
+                }
+
+                Tile t;
+                if (board.isDest(i)) {
+                    DestTile d = new DestTile();
+                    destTiles.add(d);
+                    t = d;
+                } else {
+                    t = new Tile();
                 }
+                cells[r][c] = t;
+
+                if (board.hasCrate(i))
+                    t.setOccupant(crates.get(board.getCrateAt(i)));
+                else if (board.getPlayer() == i)
+                    t.setOccupant(player);
             }
         }
+    }
 
-        if (null == player)
-            throw new InvalidNumberOfPlayersException("0 players found!");
+    public Board getBoard() {
+        return board;
     }
 
     public ArrayList<DestTile> getDestTiles() {
+        if (cells == null)
+            buildCells();
         return destTiles;
     }
 
@@ -107,10 +133,142 @@ public class Map {
         return crates;
     }
 
+    /**
+     * @return The cells of the map, built on the first call. The renderers read the {@link Board} instead.
+     */
     public Cell[][] getCells() {
+        if (cells == null)
+            buildCells();
         return cells;
     }
 
+    public Player getPlayer() {
+        return player;
+    }
+
+    /**
+     * @return Whether or not every destination tile holds a crate. Runs in constant time, as the board keeps
+     * count of the completed destinations while crates are pushed.
+     */
+    public boolean isAllDestTilesCompleted() {
+        return board.isAllDestsCompleted();
+    }
+
+    /**
+     * @return Whether or not any crate has been pushed onto a square from which it can never reach a destination
+     */
+    public boolean hasCrateOnDeadSquare() {
+        return board.hasDeadCrate();
+    }
+
+    /**
+     * @return Whether or not any crate has free floor on both its left and right, or both above and below it
+     */
+    public boolean hasMovableCrate() {
+        return board.hasMovableCrate();
+    }
+
+    /**
+     * Starts building the push distances of the level and solving the crate matching for the current state on a
+     * thread of its own, so that the first deadlock check does not do either on the calling thread, which takes long
+     * on large levels. Until it is done, {@link #hasUnmatchableCrates()} returns false. Only meant for levels which are
+     * about to be played, not just previewed.
+     *
+     * @return Done once the matching is ready
+     */
+    public Future<?> prepareMatching() {
+        if (preparing == null && matching == null && !matchingFailed) {
+            Board copy = board.copy();
+            preparing = preparer.submit(() -> new CrateMatching(copy));
+        }
+        return preparing != null ? preparing : CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * @return Whether the crates can no longer all be pushed to different destinations, even if no other crate were
+     * in the way. False while {@link #prepareMatching()} is still solving the matching, or if it failed to; if it was
+     * never called, the matching is solved by the first call.
+     */
+    public boolean hasUnmatchableCrates() {
+        if (matching == null) {
+            if (matchingFailed)
+                return false;
+            if (preparing == null) {
+                matching = new CrateMatching(board);
+            } else if (preparing.isDone()) {
+                try {
+                    //the moves made since the copy was taken are caught up with
+                    matching = new CrateMatching(board, preparing.get());
+                } catch (InterruptedException | ExecutionException e) {
+                    //the other deadlock checks still work without it
+                    e.printStackTrace();
+                    matchingFailed = true;
+                }
+                preparing = null;
+                return matching != null && matching.isDeadlocked();
+            } else {
+                return false;
+            }
+        }
+        return matching.isDeadlocked();
+    }
+
+    /**
+     * @return Whether or not the most recently pushed crate is frozen together with its neighbours while some of
+     * them are off their destinations, or the crates around it match one of the {@link DeadlockPatterns} the solver
+     * proved. Only the crates around that crate are examined.
+     */
+    public boolean isLastPushedCrateFrozen() {
+        return lastPushedCrate != -1 && (board.isFreezeDeadlocked(lastPushedCrate)
+                || DeadlockPatterns.getInstance().matches(board, lastPushedCrate));
+    }
+
+    /**
+     * @return A 64 bit Zobrist hash of the crate positions and the region the player can walk to, updated
+     * incrementally as crates are pushed
+     */
+    public long getZobristHash() {
+        return board.getHash();
+    }
+
+    /**
+     * @return A copy of the positions of the crates and the player, together with the crate matching for them
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(board.snapshot(), matching == null ? null : matching.snapshot());
+    }
+
+    /**
+     * Puts the crates and the player back to where they were when the snapshot was taken. Only the occupants
+     * move; the cells themselves are kept. The crate matching is copied back from the snapshot rather than solved
+     * again, so restarting stays quick however many crates there are.
+     *
+     * @param snapshot A snapshot taken from this map
+     */
+    public void restore(Snapshot snapshot) {
+        for (int id = 0; id < crates.size(); id++)
+            vacate(board.getCrate(id));
+        vacate(board.getPlayer());
+
+        board.restore(snapshot.board);
+
+        for (int id = 0; id < crates.size(); id++)
+            moveCrate(crates.get(id), board.getCrate(id));
+        int to = board.getPlayer();
+        occupy(to, player);
+        player.setPos(to / board.getCols(), to % board.getCols());
+        lastPushedCrate = -1;
+        if (matching != null) {
+            if (snapshot.matching != null) {
+                matching.restore(snapshot.matching);
+            } else {
+                //the matching was built after the snapshot was taken, so it catches up once and is kept for next time
+                matching.update();
+                snapshot.matching = matching.snapshot();
+            }
+        }
+    }
+
     /**
      * Attempts to move the player in the specified direction. Note that the player only has the strength to push
      * one crate. It cannot push 2 or more crates simultaneously.
@@ -119,87 +277,133 @@ public class Map {
      * @return Whether the move was successful
      */
     public boolean movePlayer(Direction d) {
-        int curR = player.getR();
-        int curC = player.getC();
-
-        int newR = curR;
-        int newC = curC;
-
-        switch (d) {
-            case UP:
-                newR--;
-                break;
-            case DOWN:
-                newR++;
-                break;
-            case LEFT:
-                newC--;
-                break;
-            case RIGHT:
-                newC++;
-                break;
-        }
+        int from = board.getPlayer();
+        if (!board.movePlayer(d))
+            return false;
 
-        if (isValid(newR, newC)) {
-            if (isOccupiableAndNotOccupiedWithCrate(newR, newC)) {
-                ((Occupiable) cells[curR][curC]).removeOccupant();
-                ((Occupiable) cells[newR][newC]).setOccupant(player);
-                player.setPos(newR, newC);
-                return true;
-            } else if (cells[newR][newC] instanceof Occupiable) {
-                if (moveCrate((Crate) ((Occupiable) cells[newR][newC]).getOccupant().get(), d)) {
-                    ((Occupiable) cells[curR][curC]).removeOccupant();
-                    ((Occupiable) cells[newR][newC]).setOccupant(player);
-                    player.setPos(newR, newC);
-                    return true;
-                }
-            }
+        int pushed = board.getLastPushedCrate();
+        if (pushed != -1) {
+            moveCrate(crates.get(pushed), board.getCrate(pushed));
+            lastPushedCrate = pushed;
+            if (matching != null)
+                matching.crateMoved(pushed);
         }
-        return false;
+
+        int to = board.getPlayer();
+        vacate(from);
+        occupy(to, player);
+        player.setPos(to / board.getCols(), to % board.getCols());
+        return true;
     }
 
     /**
-     * Attempts to move the crate into the specified direction by 1 cell. Will only succeed if the destination
-     * implements the occupiable interface and is not currently occupied.
+     * @return Whether or not the last successful move (or undo) moved a crate
+     */
+    public boolean lastMoveWasPush() {
+        return board.getLastPushedCrate() != -1;
+    }
+
+    /**
+     * Reverses the last applied move. The player steps back and pulls the crate it pushed, if any.
      *
-     * @param c The crate to be moved
-     * @param d The desired direction to move the crate in
-     * @return Whether or not the move was successful
-     */
-    private boolean moveCrate(Crate c, Direction d) {
-        int curR = c.getR();
-        int curC = c.getC();
-
-        int newR = curR;
-        int newC = curC;
-
-        switch (d) {
-            case UP:
-                newR--;
-                break;
-            case DOWN:
-                newR++;
-                break;
-            case LEFT:
-                newC--;
-                break;
-            case RIGHT:
-                newC++;
-                break;
+     * @param d      The direction of the move to reverse
+     * @param pushed Whether the move pushed a crate
+     */
+    public void undoMove(Direction d, boolean pushed) {
+        int from = board.getPlayer();
+        board.undoMove(d, pushed);
+        int to = board.getPlayer();
+        vacate(from);
+
+        int pulled = board.getLastPushedCrate();
+        if (pulled != -1) {
+            //the crate was one step further away from the player, in the same direction
+            vacate(from + (from - to));
+            moveCrate(crates.get(pulled), from);
+            if (matching != null)
+                matching.crateMoved(pulled);
         }
+        lastPushedCrate = -1;
 
-        if (isOccupiableAndNotOccupiedWithCrate(newR, newC)) {
-            ((Occupiable) cells[curR][curC]).removeOccupant();
-            ((Occupiable) cells[newR][newC]).setOccupant(c);
-            c.setPos(newR, newC);
-            return true;
-        } else {
-            return false;
+        occupy(to, player);
+        player.setPos(to / board.getCols(), to % board.getCols());
+    }
+
+    /**
+     * Moves the crate object to the square the board has already moved it to. The square it left is
+     * taken over by the player afterwards. The cells, if built, are updated by {@link #occupy(int, Occupant)}.
+     *
+     * @param c      The crate to be moved
+     * @param target The square the crate now stands on
+     */
+    private void moveCrate(Crate c, int target) {
+        occupy(target, c);
+        c.setPos(target / board.getCols(), target % board.getCols());
+    }
+
+    private Occupiable occupiable(int i) {
+        return (Occupiable) cells[i / board.getCols()][i % board.getCols()];
+    }
+
+    private void occupy(int i, Occupant o) {
+        if (cells != null)
+            occupiable(i).setOccupant(o);
+        markDirty(i);
+    }
+
+    private void vacate(int i) {
+        if (cells != null)
+            occupiable(i).removeOccupant();
+        markDirty(i);
+    }
+
+    private void markDirty(int i) {
+        if (!isDirty[i]) {
+            isDirty[i] = true;
+            dirtySquares[numDirty++] = i;
         }
     }
 
-    private boolean isValid(int r, int c) {
-        return r >= 0 && r < cells.length && c >= 0 && c < cells[0].length;
+    /**
+     * Marks a cell to be redrawn although its contents did not change, e.g. because something was drawn over it.
+     *
+     * @param r The row coordinate
+     * @param c The column coordinate
+     */
+    public void markDirty(int r, int c) {
+        markDirty(board.index(r, c));
+    }
+
+    /**
+     * @return Whether every cell has to be drawn, as the map was never drawn since it was initialized
+     */
+    public boolean isAllDirty() {
+        return allDirty;
+    }
+
+    /**
+     * @return The number of cells changed since the map was last drawn
+     */
+    public int getNumDirtyCells() {
+        return numDirty;
+    }
+
+    /**
+     * @param k The number of the changed cell, below {@link #getNumDirtyCells()}
+     * @return The square (row * cols + column) of the changed cell
+     */
+    public int getDirtyCell(int k) {
+        return dirtySquares[k];
+    }
+
+    /**
+     * Called once the changed cells were drawn.
+     */
+    public void clearDirtyCells() {
+        for (int k = 0; k < numDirty; k++)
+            isDirty[dirtySquares[k]] = false;
+        numDirty = 0;
+        allDirty = false;
     }
 
     /**
@@ -209,16 +413,88 @@ public class Map {
      * yet does not currently have a crate in it. Will return false if out of bounds.
      */
     public boolean isOccupiableAndNotOccupiedWithCrate(int r, int c) {
-        if (!isValid(r, c)) {
-            return false;
+        return board.isFloorWithoutCrate(r, c);
+    }
+
+    public enum Direction {
+        UP(-1, 0, 'w'), DOWN(1, 0, 's'), LEFT(0, -1, 'a'), RIGHT(0, 1, 'd');
+
+        private final int dr;
+        private final int dc;
+        private final char key;
+
+        //the direction of every key, indexed by the key char, or null
+        private static final Direction[] BY_KEY = new Direction[128];
+
+        static {
+            for (Direction d : values())
+                BY_KEY[d.key] = d;
         }
 
-        return cells[r][c] instanceof Occupiable &&
-                (!((Occupiable) cells[r][c]).getOccupant().isPresent()
-                        || !(((Occupiable) cells[r][c]).getOccupant().get() instanceof Crate));
+        Direction(int dr, int dc, char key) {
+            this.dr = dr;
+            this.dc = dc;
+            this.key = key;
+        }
+
+        /**
+         * @param key The char corresponding to a move from the user
+         * @return The direction the key moves the player in, or null if it is not a move key
+         */
+        public static Direction fromKey(char key) {
+            return key < BY_KEY.length ? BY_KEY[key] : null;
+        }
+
+        /**
+         * @return The change in row coordinate of a single step
+         */
+        public int getDR() {
+            return dr;
+        }
+
+        /**
+         * @return The change in column coordinate of a single step
+         */
+        public int getDC() {
+            return dc;
+        }
+
+        /**
+         * @return The direction pointing the other way
+         */
+        public Direction getOpposite() {
+            switch (this) {
+                case UP:
+                    return DOWN;
+                case DOWN:
+                    return UP;
+                case LEFT:
+                    return RIGHT;
+                default:
+                    return LEFT;
+            }
+        }
+
+        /**
+         * @return The char of the key which moves the player in this direction
+         */
+        public char getKey() {
+            return key;
+        }
     }
 
-    public enum Direction {
-        UP, DOWN, LEFT, RIGHT
+    /**
+     * The positions of the crates and the player at some point in time, with the crate matching for them if it was
+     * built by then. Can only be restored to the map it was taken from.
+     */
+    public static class Snapshot {
+        private final Board.Snapshot board;
+        //filled in by the first restore if the matching was built later
+        private CrateMatching.Snapshot matching;
+
+        private Snapshot(Board.Snapshot board, CrateMatching.Snapshot matching) {
+            this.board = board;
+            this.matching = matching;
+        }
     }
 }
@@ -0,0 +1,270 @@
+package model.Map;
+
+import java.util.Arrays;
+
+import static model.Map.DeadlockPatterns.CELLS;
+import static model.Map.DeadlockPatterns.SIZE;
+
+/**
+ * Proves deadlocks among the crates around a push which freeze detection misses, with a small search of their own,
+ * and teaches them to {@link DeadlockPatterns}. The search only knows the 5x5 window around the pushed crate and takes
+ * everything outside it as empty floor: a crate pushed out of the window is done with, and the player walks around
+ * the outside freely. If even then the crates left in the window can never all stand on destinations at once, the
+ * level cannot be solved either, whatever lies outside the window, as fewer walls and crates never make a level
+ * harder.
+ * <p>
+ * A state is the crates in the window as a bit mask, together with the squares of the window the player can walk
+ * to. Windows which are not deadlocked are remembered as well, so each arrangement is searched only once.
+ * Not thread-safe: every thread of a search needs its own.
+ */
+public class PatternSearch {
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+    //above this many states a window is taken as not deadlocked, which keeps every search cheap
+    private static final int MAX_STATES = 4096;
+    //the windows known not to be deadlocked are forgotten once there are this many, to bound the memory they take
+    private static final int MAX_SAFE = 1 << 18;
+
+    private static final int FULL = (1 << CELLS) - 1;
+    private static final int FIRST_COLUMN = 0b00001_00001_00001_00001_00001;
+    private static final int LAST_COLUMN = FIRST_COLUMN << (SIZE - 1);
+    static final int BORDER = 0b11111_10001_10001_10001_11111;
+    //set in a region when the player can walk out of the window, and from there back into any square of the border
+    private static final int OUTSIDE = 1 << CELLS;
+
+    private final DeadlockPatterns patterns;
+
+    //the states of the current search in the order they were reached: the crates and the region of the player
+    private final int[] crateMasks = new int[MAX_STATES];
+    private final int[] regions = new int[MAX_STATES];
+    private int numStates;
+    //the states still to expand, the latest first
+    private final int[] open = new int[MAX_STATES];
+    private int numOpen;
+    //open addressing set of the states reached by the current search; a slot is only used if its stamp is current
+    private final int[] seen = new int[MAX_STATES * 4];
+    private final int[] seenStamps = new int[MAX_STATES * 4];
+    private int stamp;
+
+    //open addressing set of the keys of windows which are not deadlocked, in every orientation; 0 marks an empty slot
+    private long[] safe = new long[1 << 12];
+    private int numSafe;
+
+    public PatternSearch() {
+        this(DeadlockPatterns.getInstance());
+    }
+
+    PatternSearch(DeadlockPatterns patterns) {
+        this.patterns = patterns;
+    }
+
+    /**
+     * Runs freeze detection first. Otherwise, if the player can walk out of the window around the crate, looks the
+     * window up in the known patterns, and searches it if it is neither a known deadlock nor known not to be one.
+     *
+     * @param board The board the crate was just pushed on
+     * @param id    The id of the crate
+     * @return Whether the crate is frozen together with a crate off its destination, or the crates around it can no
+     * longer all be placed
+     */
+    public boolean isDeadlocked(Board board, int id) {
+        if (board.isFreezeDeadlocked(id))
+            return true;
+        int crate = board.getCrate(id);
+        if (!DeadlockPatterns.canLeave(board, crate))
+            return false;
+        long key = DeadlockPatterns.keyAround(board, crate);
+        if (patterns.contains(key))
+            return true;
+        if (containsSafe(key))
+            return false;
+
+        if (proves(key)) {
+            patterns.learn(key);
+            return true;
+        }
+        if (numSafe + DeadlockPatterns.ORIENTATIONS > MAX_SAFE) {
+            Arrays.fill(safe, 0);
+            numSafe = 0;
+        }
+        for (int s = 0; s < DeadlockPatterns.ORIENTATIONS; s++)
+            addSafe(DeadlockPatterns.orientation(key, s));
+        return false;
+    }
+
+    /**
+     * @param key The key of a window, with the pushed crate in the middle
+     * @return Whether the crates in the window can never all stand on destinations or leave it, with the player
+     * starting outside. False if there are fewer than 2 crates, as dead squares tell about single crates, or if the
+     * search got too large to finish.
+     */
+    boolean proves(long key) {
+        int walls = 0;
+        int crates = 0;
+        int dests = 0;
+        for (int k = 0; k < CELLS; k++) {
+            int cell = DeadlockPatterns.cellAt(key, k);
+            if (cell == DeadlockPatterns.WALL)
+                walls |= 1 << k;
+            if (cell == DeadlockPatterns.CRATE || cell == DeadlockPatterns.CRATE_ON_DEST)
+                crates |= 1 << k;
+            if (cell == DeadlockPatterns.CRATE_ON_DEST || cell == DeadlockPatterns.DEST)
+                dests |= 1 << k;
+        }
+        if (Integer.bitCount(crates) < 2 || (crates & ~dests) == 0)
+            return false;
+
+        if (++stamp == 0) {
+            Arrays.fill(seenStamps, 0);
+            stamp = 1;
+        }
+        numStates = 0;
+        numOpen = 0;
+        int free = FULL & ~walls & ~crates;
+        if (!visit(walls, crates, flood(BORDER & free, free) | OUTSIDE, dests))
+            return false;
+
+        while (numOpen > 0) {
+            int state = open[--numOpen];
+            int current = crateMasks[state];
+            int region = regions[state];
+            for (int rest = current; rest != 0; rest &= rest - 1) {
+                int k = Integer.numberOfTrailingZeros(rest);
+                int r = k / SIZE;
+                int c = k % SIZE;
+                for (Map.Direction d : DIRECTIONS) {
+                    int behind = square(r - d.getDR(), c - d.getDC());
+                    if (behind == -1 ? (region & OUTSIDE) == 0 : (region & 1 << behind) == 0)
+                        continue;
+                    int target = square(r + d.getDR(), c + d.getDC());
+                    int next = current & ~(1 << k);
+                    if (target != -1) {
+                        if (((walls | current) & 1 << target) != 0)
+                            continue;
+                        next |= 1 << target;
+                    }
+                    if (!visit(walls, next, region(walls, next, 1 << k), dests))
+                        return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param seed The squares the player can get to
+     * @return The region of the player, with {@link #OUTSIDE} set if it can walk out of the window
+     */
+    private static int region(int walls, int crates, int seed) {
+        int free = FULL & ~walls & ~crates;
+        int region = flood(seed, free);
+        if ((region & BORDER) != 0)
+            region = flood(region | (BORDER & free), free) | OUTSIDE;
+        return region;
+    }
+
+    /**
+     * Adds the state to the search unless it was reached already, after taking every crate the player can push out
+     * of the window off the window. Such a push never needs to wait: the player can walk back to where it was, and
+     * with one crate fewer in the way, whatever could be done before still can.
+     *
+     * @return False if the crates left are all on destinations, so the window is not deadlocked, or if the state is
+     * new but there is no room left for it
+     */
+    private boolean visit(int walls, int crates, int region, int dests) {
+        for (int rest = crates & BORDER; rest != 0; ) {
+            int k = Integer.numberOfTrailingZeros(rest);
+            rest &= rest - 1;
+            if (canPushOut(k, region)) {
+                crates &= ~(1 << k);
+                region = region(walls, crates, (region & ~OUTSIDE) | 1 << k);
+                rest = crates & BORDER;
+            }
+        }
+        if ((crates & ~dests) == 0)
+            return false;
+
+        //the region is told apart by its lowest square, as regions never overlap for the same crates
+        int id = crates | (region & OUTSIDE) | Integer.numberOfTrailingZeros(region & ~OUTSIDE) << (CELLS + 1);
+        int mask = seen.length - 1;
+        int slot = DeadlockPatterns.spread(id) & mask;
+        while (seenStamps[slot] == stamp) {
+            if (seen[slot] == id)
+                return true;
+            slot = (slot + 1) & mask;
+        }
+        if (numStates == MAX_STATES)
+            return false;
+        seen[slot] = id;
+        seenStamps[slot] = stamp;
+        crateMasks[numStates] = crates;
+        regions[numStates] = region;
+        open[numOpen++] = numStates++;
+        return true;
+    }
+
+    /**
+     * @param k      A square on the border of the window holding a crate
+     * @param region The region of the player
+     * @return Whether the player can push the crate straight out of the window
+     */
+    private static boolean canPushOut(int k, int region) {
+        int r = k / SIZE;
+        int c = k % SIZE;
+        for (Map.Direction d : DIRECTIONS) {
+            int behind = square(r - d.getDR(), c - d.getDC());
+            if (behind != -1 && square(r + d.getDR(), c + d.getDC()) == -1 && (region & 1 << behind) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The squares of the window reachable from the seed squares over the free squares, as a bit mask
+     */
+    static int flood(int seed, int free) {
+        int reach = seed;
+        while (true) {
+            int next = reach | (((reach >>> SIZE) | (reach << SIZE) | ((reach & ~FIRST_COLUMN) >>> 1)
+                    | ((reach & ~LAST_COLUMN) << 1)) & free);
+            if (next == reach)
+                return reach;
+            reach = next;
+        }
+    }
+
+    /**
+     * @return The square of the window, or -1 if it is outside the window
+     */
+    private static int square(int r, int c) {
+        return r < 0 || r >= SIZE || c < 0 || c >= SIZE ? -1 : r * SIZE + c;
+    }
+
+    private boolean containsSafe(long key) {
+        int mask = safe.length - 1;
+        for (int slot = DeadlockPatterns.spread(key) & mask; safe[slot] != 0; slot = (slot + 1) & mask) {
+            if (safe[slot] == key)
+                return true;
+        }
+        return false;
+    }
+
+    private void addSafe(long key) {
+        int mask = safe.length - 1;
+        int slot = DeadlockPatterns.spread(key) & mask;
+        while (safe[slot] != 0) {
+            if (safe[slot] == key)
+                return;
+            slot = (slot + 1) & mask;
+        }
+        safe[slot] = key;
+        if (++numSafe * 2 > safe.length) {
+            long[] old = safe;
+            safe = new long[old.length * 2];
+            numSafe = 0;
+            for (long k : old) {
+                if (k != 0)
+                    addSafe(k);
+            }
+        }
+    }
+}
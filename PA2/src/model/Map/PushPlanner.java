@@ -0,0 +1,254 @@
+package model.Map;
+
+import java.util.Arrays;
+
+/**
+ * Plans how to push a single crate to a target square with as few pushes as possible, while the other crates stay
+ * where they are. The search runs over the square of the crate together with the side the player pushes it from, so
+ * the player may have to walk around the crate between pushes.
+ * <p>
+ * Whether the player can walk around the crate from one side to another does not need a flood fill per state: the
+ * crate splits the floor around it exactly where its square is a cut square (an articulation point) of the floor
+ * without the other crates. So a single depth-first search per plan (Tarjan's) tells, for every square the crate can
+ * be on, which of its neighbours stay connected, and a plan costs O(area + states) rather than O(area * states).
+ * <p>
+ * Pushes are encoded as {@code crate square * 4 + direction ordinal}, the square being where the crate is before the
+ * push.
+ */
+public class PushPlanner {
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+
+    private final Board board;
+    private final int size;
+    //the squares of the other crates while planning on the planner's board, all false in between
+    private boolean[] otherCrates;
+
+    //scratch space of the depth-first search, allocated by the first plan. A square was visited by the current plan
+    //if its mark is the current stamp; the other arrays only hold values for visited squares.
+    private int[] marks;
+    private int stamp;
+    private int[] stack;
+    private int[] nextDir;
+    private int[] parent;
+    private int[] preorder;
+    //the lowest preorder number reachable from the subtree of every square through a single back edge
+    private int[] low;
+    //the end of the preorder range of the subtree of every square, exclusive
+    private int[] subtreeEnd;
+
+    //scratch space of the search over states, allocated by the first plan: the state every state was reached from,
+    //plus 1, or 0 if it was not, and the states in the order they were reached
+    private int[] reachedFrom;
+    private int[] open;
+    private int numReached;
+
+    /**
+     * @param board The board to plan on. Only its walls and dead squares are shared with the plans; crates and the
+     *              player are passed to each plan.
+     */
+    public PushPlanner(Board board) {
+        this.board = board;
+        this.size = board.getRows() * board.getCols();
+    }
+
+    /**
+     * @param crate  The square of the crate to push, on the planner's board
+     * @param target The square to push it to. It may be a dead square; no other square on the way may be.
+     * @return The pushes, or null if the crate cannot get there without moving other crates
+     */
+    public int[] plan(int crate, int target) {
+        if (otherCrates == null)
+            otherCrates = new boolean[size];
+        for (int id = 0; id < board.getNumCrates(); id++)
+            otherCrates[board.getCrate(id)] = true;
+        otherCrates[crate] = false;
+        int[] pushes = plan(otherCrates, board.getPlayer(), crate, target);
+        for (int id = 0; id < board.getNumCrates(); id++)
+            otherCrates[board.getCrate(id)] = false;
+        return pushes;
+    }
+
+    /**
+     * @param crate  The square of the crate to push, on the planner's board
+     * @param target The square to push it to, as in {@link #plan(int, int)}
+     * @return The moves of the pushes together with the walks of the player around the crate between them, in the
+     * w/a/s/d move language, or null if the crate cannot get there without moving other crates
+     */
+    public String planMoves(int crate, int target) {
+        int[] pushes = plan(crate, target);
+        if (pushes == null)
+            return null;
+
+        //the walks depend on where the crate is by then, so the pushes are replayed on a copy
+        Board replay = board.copy();
+        WalkPlanner walker = new WalkPlanner(replay);
+        StringBuilder moves = new StringBuilder();
+        for (int push : pushes) {
+            Map.Direction d = DIRECTIONS[push % DIRECTIONS.length];
+            String walk = walker.plan(replay.neighbour(push / DIRECTIONS.length, d.getOpposite().ordinal()));
+            for (int k = 0; k < walk.length(); k++)
+                replay.movePlayer(Map.Direction.fromKey(walk.charAt(k)));
+            replay.movePlayer(d);
+            moves.append(walk).append(d.getKey());
+        }
+        return moves.toString();
+    }
+
+    /**
+     * @param blocked The squares taken by other crates. Walls are taken from the board.
+     * @param player  The square of the player
+     * @param crate   The square of the crate to push
+     * @param target  The square to push it to
+     * @return The pushes, or null if the crate cannot get there
+     */
+    int[] plan(boolean[] blocked, int player, int crate, int target) {
+        if (crate == target)
+            return new int[0];
+
+        if (marks == null)
+            allocate();
+        findCutSquares(blocked, crate);
+        int[] pushes = search(blocked, player, crate, target);
+        for (int k = 0; k < numReached; k++)
+            reachedFrom[open[k]] = 0;
+        return pushes;
+    }
+
+    private void allocate() {
+        marks = new int[size];
+        stack = new int[size];
+        nextDir = new int[size];
+        parent = new int[size];
+        preorder = new int[size];
+        low = new int[size];
+        subtreeEnd = new int[size];
+        //a state is a crate square * 4 + the side the player pushes to
+        reachedFrom = new int[size * DIRECTIONS.length];
+        open = new int[size * DIRECTIONS.length];
+    }
+
+    /**
+     * Breadth-first search over the states, leaving every state reached in open.
+     */
+    private int[] search(boolean[] blocked, int player, int crate, int target) {
+        int head = 0;
+        numReached = 0;
+        //the player may be anywhere, unless it is off the floor the crate can reach, then no side can be pushed from
+        if (marks[player] == stamp) {
+            int part = partAround(crate, player);
+            for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+                int state = crate * DIRECTIONS.length + dir;
+                if (canPushFrom(crate, dir, part)) {
+                    reachedFrom[state] = state + 1;
+                    open[numReached++] = state;
+                }
+            }
+        }
+
+        while (head < numReached) {
+            int state = open[head++];
+            int from = state / DIRECTIONS.length;
+            int dir = state % DIRECTIONS.length;
+            int to = board.neighbour(from, dir);
+            if (to == -1 || board.isWall(to) || blocked[to] || (board.isDeadSquare(to) && to != target))
+                continue;
+            if (to == target)
+                return toPushes(state);
+
+            //after the push the player stands where the crate was
+            int part = partAround(to, from);
+            for (int next = 0; next < DIRECTIONS.length; next++) {
+                int nextState = to * DIRECTIONS.length + next;
+                if (reachedFrom[nextState] == 0 && canPushFrom(to, next, part)) {
+                    reachedFrom[nextState] = state + 1;
+                    open[numReached++] = nextState;
+                }
+            }
+        }
+        return null;
+    }
+
+    private int[] toPushes(int last) {
+        int length = 1;
+        for (int state = last; reachedFrom[state] - 1 != state; state = reachedFrom[state] - 1)
+            length++;
+        int[] pushes = new int[length];
+        for (int state = last, i = length - 1; i >= 0; state = reachedFrom[state] - 1, i--)
+            pushes[i] = state;
+        return pushes;
+    }
+
+    /**
+     * @param crate The square of the crate
+     * @param dir   The ordinal of the direction to push it in
+     * @param part  The part of the floor around the crate the player is in, as in {@link #partAround(int, int)}
+     * @return Whether the player can walk to the square behind the crate
+     */
+    private boolean canPushFrom(int crate, int dir, int part) {
+        int behind = board.neighbour(crate, DIRECTIONS[dir].getOpposite().ordinal());
+        //the square behind is next to the crate, so it was visited if it is floor without another crate
+        return behind != -1 && marks[behind] == stamp && partAround(crate, behind) == part;
+    }
+
+    /**
+     * Numbers the floor squares reachable from the square of the crate, without the other crates, in depth-first
+     * preorder, with the low numbers and subtree ranges which tell the cut squares apart.
+     */
+    private void findCutSquares(boolean[] blocked, int root) {
+        if (++stamp == 0) {
+            Arrays.fill(marks, 0);
+            stamp = 1;
+        }
+        int numVisited = 0;
+        int depth = 0;
+        marks[root] = stamp;
+        preorder[root] = low[root] = numVisited++;
+        parent[root] = -1;
+        nextDir[root] = 0;
+        stack[depth++] = root;
+        while (depth > 0) {
+            int p = stack[depth - 1];
+            if (nextDir[p] == DIRECTIONS.length) {
+                depth--;
+                subtreeEnd[p] = numVisited;
+                if (parent[p] != -1)
+                    low[parent[p]] = Math.min(low[parent[p]], low[p]);
+                continue;
+            }
+            int q = board.neighbour(p, nextDir[p]++);
+            if (q == -1 || board.isWall(q) || blocked[q])
+                continue;
+            if (marks[q] != stamp) {
+                marks[q] = stamp;
+                preorder[q] = low[q] = numVisited++;
+                parent[q] = p;
+                nextDir[q] = 0;
+                stack[depth++] = q;
+            } else if (q != parent[p]) {
+                low[p] = Math.min(low[p], preorder[q]);
+            }
+        }
+    }
+
+    /**
+     * Tells which part of the floor a square is in while the crate stands on another one. Removing the crate's
+     * square from the depth-first tree leaves the subtrees of its children, and the rest of the tree. A subtree stays
+     * connected to the rest unless it cannot climb above the crate's square, and subtrees never connect to each other
+     * but through the rest.
+     *
+     * @param crate The square of the crate, visited by the last search
+     * @param i     Another square visited by the last search
+     * @return The child heading the subtree the square is in if that subtree is cut off by the crate, otherwise -1
+     */
+    private int partAround(int crate, int i) {
+        if (preorder[i] < preorder[crate] || preorder[i] >= subtreeEnd[crate])
+            return -1;
+        for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+            int child = board.neighbour(crate, dir);
+            if (child != -1 && marks[child] == stamp && parent[child] == crate && preorder[child] <= preorder[i]
+                    && preorder[i] < subtreeEnd[child])
+                return low[child] >= preorder[crate] ? child : -1;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,133 @@
+package model.Map;
+
+import java.util.Arrays;
+
+/**
+ * Finds the shortest walk of the player to a square, going around crates instead of pushing them.
+ * <p>
+ * Every query needs the distances of a breadth-first search from one end of the walk. Walking is reversible, so the
+ * distances from either end will do, and they stay valid for as long as no crate moves. The last few of them are kept,
+ * so after the first query, walking back and forth between squares the player clicked costs just the length of the
+ * walk. They are all dropped as soon as the crate version of the board changes.
+ */
+public class WalkPlanner {
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+    private static final int CACHED_SEARCHES = 4;
+    private static final int UNREACHED = -1;
+
+    private final Board board;
+    private final int size;
+    //the distances of every square from the root of each cached search, or UNREACHED. Each slot is allocated by
+    //the first search stored in it, so levels nobody clicks on never pay for them.
+    private final int[][] distances = new int[CACHED_SEARCHES][];
+    //the root of each cached search, or -1 if the slot is empty
+    private final int[] roots = new int[CACHED_SEARCHES];
+    //the slot to fill next, in round robin
+    private int nextSlot;
+    //the crate version of the board the cached searches were made for
+    private int version;
+    private int[] queue;
+
+    /**
+     * @param board The board to walk on. Its player and crates are read at every query.
+     */
+    public WalkPlanner(Board board) {
+        this.board = board;
+        this.size = board.getRows() * board.getCols();
+        Arrays.fill(roots, -1);
+        version = board.getCrateVersion();
+    }
+
+    /**
+     * @param target The square to walk to
+     * @return The moves of a shortest walk from the player to the square, in the w/a/s/d move language, or null if
+     * the player cannot get there without pushing a crate
+     */
+    public String plan(int target) {
+        int player = board.getPlayer();
+        if (target == player)
+            return "";
+        if (board.isWall(target) || board.hasCrate(target))
+            return null;
+
+        if (version != board.getCrateVersion()) {
+            Arrays.fill(roots, -1);
+            version = board.getCrateVersion();
+        }
+
+        int slot = findSlot(target);
+        if (slot != -1)
+            return walkToRoot(distances[slot], player, false);
+        slot = findSlot(player);
+        if (slot == -1)
+            slot = search(player);
+        return walkToRoot(distances[slot], target, true);
+    }
+
+    private int findSlot(int root) {
+        for (int slot = 0; slot < CACHED_SEARCHES; slot++) {
+            if (roots[slot] == root)
+                return slot;
+        }
+        return -1;
+    }
+
+    /**
+     * Follows the distances downhill from a square to the root of the search.
+     *
+     * @param reversed Whether to return the walk from the root to the square instead
+     * @return The moves, or null if the square was not reached by the search
+     */
+    private String walkToRoot(int[] distance, int from, boolean reversed) {
+        if (distance[from] == UNREACHED)
+            return null;
+        char[] moves = new char[distance[from]];
+        int p = from;
+        for (int k = 0; k < moves.length; k++) {
+            for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+                int q = board.neighbour(p, dir);
+                if (q != -1 && distance[q] == distance[p] - 1) {
+                    if (reversed)
+                        moves[moves.length - 1 - k] = DIRECTIONS[dir].getOpposite().getKey();
+                    else
+                        moves[k] = DIRECTIONS[dir].getKey();
+                    p = q;
+                    break;
+                }
+            }
+        }
+        return new String(moves);
+    }
+
+    /**
+     * @param root The square to search from
+     * @return The slot the search was stored in, replacing the oldest one
+     */
+    private int search(int root) {
+        int slot = nextSlot;
+        nextSlot = (nextSlot + 1) % CACHED_SEARCHES;
+        roots[slot] = root;
+        if (distances[slot] == null)
+            distances[slot] = new int[size];
+        if (queue == null)
+            queue = new int[size];
+        int[] distance = distances[slot];
+        Arrays.fill(distance, UNREACHED);
+
+        int head = 0;
+        int tail = 0;
+        distance[root] = 0;
+        queue[tail++] = root;
+        while (head < tail) {
+            int p = queue[head++];
+            for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+                int q = board.neighbour(p, dir);
+                if (q == -1 || distance[q] != UNREACHED || board.isWall(q) || board.hasCrate(q))
+                    continue;
+                distance[q] = distance[p] + 1;
+                queue[tail++] = q;
+            }
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,96 @@
+package model;
+
+import model.Exceptions.InvalidMapException;
+import model.Map.Map;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Checks that playing a level, i.e. making moves through {@link GameLevel#makeMove(char)}, taking them back and
+ * making them again, and checking for deadlock after each of them as the gameplay pane does, allocates nothing once
+ * the JIT has warmed up. Run with the map files to check as arguments; exits with status 1 if any of them allocated.
+ */
+class MoveAllocationCheck {
+    private static final int WARMUP_MOVES = 200_000;
+    private static final int MOVES = 2_000_000;
+    //the rounds of moves measured; only the round which allocated least counts, so that an allocation made once when
+    //the JIT compiles a path again, e.g. after a branch first taken deoptimized it, is not taken for the move path's
+    private static final int ROUNDS = 3;
+    //the most moves kept made at once, so that the undo journal of the level never has to grow
+    private static final int MAX_DEPTH = 1000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+
+    //the number of moves made and not taken back
+    private static int depth;
+    //the number of moves taken back which can still be made again
+    private static int undone;
+    private static long seed = 0x9E3779B97F4A7C15L;
+    //the number of moves taken back because they deadlocked the level
+    private static int deadlocks;
+
+    public static void main(String[] args) throws InvalidMapException, InterruptedException, ExecutionException {
+        boolean allocated = false;
+        for (String filename : args) {
+            GameLevel level = new GameLevel();
+            level.loadMap(filename);
+            level.prepareForPlay().get();
+            depth = 0;
+            undone = 0;
+
+            play(level, WARMUP_MOVES);
+            long thread = Thread.currentThread().getId();
+            //the bytes allocated by reading the counter itself
+            long before = THREADS.getThreadAllocatedBytes(thread);
+            long overhead = THREADS.getThreadAllocatedBytes(thread) - before;
+            long bytes = Long.MAX_VALUE;
+            deadlocks = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                before = THREADS.getThreadAllocatedBytes(thread);
+                play(level, MOVES);
+                bytes = Math.min(bytes, THREADS.getThreadAllocatedBytes(thread) - before - overhead);
+            }
+
+            System.out.println(filename + ": " + bytes + " bytes allocated over " + MOVES + " moves, "
+                    + deadlocks + " of " + ROUNDS * MOVES + " measured moves deadlocked");
+            allocated |= bytes > 0;
+        }
+        if (allocated)
+            System.exit(1);
+    }
+
+    /**
+     * Makes random moves on the level, taking back one of the moves made about an eighth of the time and making
+     * one taken back again about as often. Checks for deadlock after each of them, and takes back the moves which
+     * deadlocked the level right away, as the player would have to restart or undo there.
+     */
+    private static void play(GameLevel level, int moves) {
+        for (int k = 0; k < moves; k++) {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            int r = (int) (seed >>> 33);
+            if ((depth > 0 && r % 8 == 0) || depth == MAX_DEPTH) {
+                level.undo();
+                depth--;
+                undone++;
+            } else if (undone > 0 && r % 8 == 1) {
+                level.redo();
+                depth++;
+                undone--;
+            } else if (level.makeMove(DIRECTIONS[r % DIRECTIONS.length].getKey())) {
+                depth++;
+                undone = 0;
+            }
+            if (depth > 0 && level.isDeadlocked()) {
+                level.undo();
+                depth--;
+                undone = 0;
+                deadlocks++;
+            }
+        }
+    }
+}
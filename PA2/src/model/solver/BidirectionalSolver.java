@@ -0,0 +1,381 @@
+package model.solver;
+
+import model.Exceptions.InvalidMapException;
+import model.GameLevel;
+import model.Map.Board;
+import model.Map.Map;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Searches from both ends at once: forwards by pushing crates from the start, and backwards by pulling crates off
+ * the destinations, from every region the player could end up in once the level is solved. Both searches key their
+ * states by {@link Board#getHash()} in a table of their own, which also finds the node a state was reached by, so a
+ * state reached from both sides joins the two halves into a solution. The
+ * side with the smaller frontier is always expanded next, one whole layer of pushes (or pulls) at a time, and the
+ * layer in which the sides first meet is finished before picking the shortest join, so solutions are push-optimal.
+ * <p>
+ * Backward search pays off where crates travel down long corridors: the forward search branches on every crate the
+ * player could push along the way, while pulling from the destination only follows the corridor.
+ */
+public class BidirectionalSolver {
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+
+    private final int maxStates;
+    private int forwardStates;
+    private int backwardStates;
+    private int forwardPushes;
+    private int backwardPushes;
+
+    public BidirectionalSolver() {
+        this(Solver.DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * @param maxStates The number of distinct states, over both sides, after which the search gives up
+     */
+    public BidirectionalSolver(int maxStates) {
+        this.maxStates = maxStates;
+    }
+
+    /**
+     * @return The number of distinct states reached by pushing in the last search
+     */
+    public int getForwardStates() {
+        return forwardStates;
+    }
+
+    /**
+     * @return The number of distinct states reached by pulling in the last search
+     */
+    public int getBackwardStates() {
+        return backwardStates;
+    }
+
+    /**
+     * @return How many pushes of the last solution were found by the forward search
+     */
+    public int getForwardPushes() {
+        return forwardPushes;
+    }
+
+    /**
+     * @return How many pushes of the last solution were found by the backward search
+     */
+    public int getBackwardPushes() {
+        return backwardPushes;
+    }
+
+    /**
+     * @param map The map to solve from its current state. The map itself is not modified.
+     * @return The solution, or null if there is none within the state limit
+     */
+    public Solution solve(Map map) {
+        return solve(map.getBoard());
+    }
+
+    /**
+     * @param start The board to solve from its current state. The board itself is not modified.
+     * @return The solution, or null if there is none within the state limit
+     */
+    public Solution solve(Board start) {
+        forwardStates = backwardStates = forwardPushes = backwardPushes = 0;
+        if (start.getNumCrates() != start.getNumDests())
+            return null;
+
+        //macro pushes would break up the layers of equal numbers of pushes
+        Expander expander = new Expander(start, false);
+        Side forward = new Side(1 << 16);
+        List<SearchNode> forwardLayer = new ArrayList<>();
+        SearchNode root = expander.root();
+        forward.offer(root.hash, 0);
+        forward.add(root);
+        forwardLayer.add(root);
+        if (expander.isSolved(root))
+            return join(start, root, null);
+
+        Board board = start.copy();
+        Side backward = new Side(1 << 16);
+        List<SearchNode> backwardLayer = solvedStates(board, backward);
+
+        SearchNode[] best = new SearchNode[2];
+        while (!forwardLayer.isEmpty() && !backwardLayer.isEmpty()) {
+            if (forwardLayer.size() <= backwardLayer.size()) {
+                List<SearchNode> next = new ArrayList<>();
+                for (SearchNode node : forwardLayer)
+                    expander.expand(node, forward, next);
+                for (SearchNode node : next) {
+                    forward.add(node);
+                    keepShortest(best, node, backward.node(node.hash));
+                }
+                forwardLayer = next;
+            } else {
+                List<SearchNode> next = new ArrayList<>();
+                for (SearchNode node : backwardLayer)
+                    pullAll(board, node, backward, next);
+                for (SearchNode node : next) {
+                    backward.add(node);
+                    keepShortest(best, forward.node(node.hash), node);
+                }
+                backwardLayer = next;
+            }
+
+            forwardStates = forward.size();
+            backwardStates = backward.size();
+            if (best[0] != null)
+                return join(start, best[0], best[1]);
+            if (forwardStates + backwardStates > maxStates)
+                return null;
+        }
+        return null;
+    }
+
+    /**
+     * @param best     The shortest join so far, as a forward and a backward node
+     * @param forward  The forward node of a state, or null
+     * @param backward The backward node of the same state, or null
+     */
+    private static void keepShortest(SearchNode[] best, SearchNode forward, SearchNode backward) {
+        if (forward == null || backward == null)
+            return;
+        if (best[0] == null || forward.g + backward.g < best[0].g + best[1].g) {
+            best[0] = forward;
+            best[1] = backward;
+        }
+    }
+
+    /**
+     * Creates the roots of the backward search: every crate on a destination, with the player in each of the
+     * regions left free.
+     *
+     * @param board A board of the level, which is left in an unspecified state
+     * @param side  The side of the backward search, which the roots are added to
+     * @return One node per player region
+     */
+    private static List<SearchNode> solvedStates(Board board, Side side) {
+        int[] crates = new int[board.getNumDests()];
+        for (int i = 0; i < crates.length; i++)
+            crates[i] = board.getDest(i);
+        board.placeCrates(crates);
+
+        List<SearchNode> roots = new ArrayList<>();
+        for (int i = 0; i < board.getRows() * board.getCols(); i++) {
+            if (board.isWall(i) || board.hasCrate(i))
+                continue;
+            board.setPlayer(i);
+            if (side.offer(board.getHash(), 0)) {
+                SearchNode root = new SearchNode(board.snapshot(), board.getHash(), null, -1, -1, 0, 0);
+                side.add(root);
+                roots.add(root);
+            }
+        }
+        return roots;
+    }
+
+    /**
+     * Tries every pull the player can reach. A pull moves a crate from c to c + d while the player steps from c + d
+     * to c + 2d; it is recorded as the push which undoes it, so following a backward node's parents gives the pushes
+     * from that node's state to the solved state.
+     *
+     * @param board    The board to pull on
+     * @param node     The node to expand
+     * @param table    The states reached by pulling so far
+     * @param children The list to add the new nodes to
+     */
+    private static void pullAll(Board board, SearchNode node, StateTable table, List<SearchNode> children) {
+        board.restore(node.state);
+        int[] pulls = new int[board.getNumCrates() * DIRECTIONS.length];
+        int numPulls = 0;
+        for (int id = 0; id < board.getNumCrates(); id++) {
+            int crate = board.getCrate(id);
+            for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+                int stand = board.neighbour(crate, dir);
+                if (stand == -1 || board.isWall(stand) || board.hasCrate(stand) || !board.isInPlayerRegion(stand))
+                    continue;
+                int step = board.neighbour(stand, dir);
+                if (step == -1 || board.isWall(step) || board.hasCrate(step))
+                    continue;
+                pulls[numPulls++] = crate * DIRECTIONS.length + dir;
+            }
+        }
+
+        for (int i = 0; i < numPulls; i++) {
+            int crate = pulls[i] / DIRECTIONS.length;
+            Map.Direction d = DIRECTIONS[pulls[i] % DIRECTIONS.length];
+            int stand = board.neighbour(crate, d.ordinal());
+
+            board.setPlayer(stand);
+            board.undoMove(d.getOpposite(), true);
+            long hash = board.getHash();
+            if (table.offer(hash, node.g + 1)) {
+                children.add(new SearchNode(board.snapshot(), hash, node, stand, d.getOpposite().ordinal(),
+                        node.g + 1, node.g + 1));
+            }
+            board.movePlayer(d.getOpposite());
+        }
+    }
+
+    /**
+     * @param start    The board the search started from
+     * @param forward  The forward node of the joining state
+     * @param backward The backward node of the joining state, or null if the forward node is solved
+     * @return The pushes of the forward node's path followed by those of the backward node's path
+     */
+    private Solution join(Board start, SearchNode forward, SearchNode backward) {
+        ArrayList<SearchNode> pushes = new ArrayList<>();
+        for (SearchNode n = forward; n.parent != null; n = n.parent)
+            pushes.add(0, n);
+        forwardPushes = pushes.size();
+        for (SearchNode n = backward; n != null && n.parent != null; n = n.parent)
+            pushes.add(n);
+        backwardPushes = pushes.size() - forwardPushes;
+
+        Board board = start.copy();
+        StringBuilder moves = new StringBuilder();
+        for (SearchNode n : pushes)
+            PathFinder.appendPush(board, n.pushFrom, n.pushDir, moves);
+        return new Solution(moves.toString(), pushes.size());
+    }
+
+    /**
+     * The states one side of the search reached, each with the node it was reached by. An open addressing table maps
+     * the state hashes to the number of pushes and to an index into an array of the nodes, so neither the table nor
+     * the join lookup boxes its keys.
+     * <p>
+     * Every offer the table takes is given the next index, whose node must be added next: the expansions turn every
+     * offer taken into exactly one child, in order, and the children are added before anything else is offered.
+     */
+    private static class Side implements StateTable {
+        private static final float MAX_LOAD = 0.5f;
+
+        //0 marks an empty slot
+        private long[] keys;
+        private int[] pushes;
+        private int[] indexes;
+        private int size;
+        //the index the next offer taken is given
+        private int numOffered;
+
+        private SearchNode[] nodes = new SearchNode[1 << 10];
+        private int numNodes;
+
+        /**
+         * @param expectedSize The number of states expected to be stored, rounded up to a power of 2
+         */
+        Side(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+            keys = new long[capacity];
+            pushes = new int[capacity];
+            indexes = new int[capacity];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int get(long key) {
+            int slot = find(nonZero(key));
+            return keys[slot] != 0 ? pushes[slot] : -1;
+        }
+
+        @Override
+        public boolean offer(long key, int g) {
+            long k = nonZero(key);
+            int slot = find(k);
+            if (keys[slot] == k) {
+                if (pushes[slot] <= g)
+                    return false;
+            } else {
+                keys[slot] = k;
+                size++;
+            }
+            pushes[slot] = g;
+            indexes[slot] = numOffered++;
+            if (size > keys.length * MAX_LOAD)
+                grow();
+            return true;
+        }
+
+        /**
+         * @param node The node of the latest offer taken
+         */
+        void add(SearchNode node) {
+            if (numNodes == nodes.length)
+                nodes = Arrays.copyOf(nodes, numNodes * 2);
+            nodes[numNodes++] = node;
+        }
+
+        /**
+         * @param key The state hash
+         * @return The node the state was last reached by with the fewest pushes, or null if it was not reached
+         */
+        SearchNode node(long key) {
+            int slot = find(nonZero(key));
+            return keys[slot] != 0 && indexes[slot] < numNodes ? nodes[indexes[slot]] : null;
+        }
+
+        /**
+         * @return The slot of the key, or the empty slot it would go in
+         */
+        private int find(long k) {
+            int mask = keys.length - 1;
+            int slot = spread(k) & mask;
+            while (keys[slot] != 0 && keys[slot] != k)
+                slot = (slot + 1) & mask;
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldPushes = pushes;
+            int[] oldIndexes = indexes;
+            keys = new long[oldKeys.length * 2];
+            pushes = new int[oldKeys.length * 2];
+            indexes = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0)
+                    continue;
+                int slot = find(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                pushes[slot] = oldPushes[i];
+                indexes[slot] = oldIndexes[i];
+            }
+        }
+
+        private static long nonZero(long key) {
+            return key == 0 ? 1 : key;
+        }
+
+        private static int spread(long key) {
+            return (int) (key ^ (key >>> 32));
+        }
+    }
+
+    /**
+     * Solves the given map files both forwards only and bidirectionally, and prints how many states each needed and
+     * how many pushes of the bidirectional solution each side found.
+     *
+     * @param args The map text filenames
+     * @throws InvalidMapException When a map is invalid
+     */
+    public static void main(String[] args) throws InvalidMapException {
+        for (String filename : args) {
+            GameLevel level = new GameLevel();
+            level.loadMap(filename);
+            Solver solver = new Solver();
+            solver.solve(level.getMap());
+            BidirectionalSolver bidirectional = new BidirectionalSolver();
+            Solution solution = bidirectional.solve(level.getMap());
+
+            System.out.println(filename + ": forward only " + solver.getNumStates() + " states; bidirectional "
+                    + bidirectional.getForwardStates() + " forward + " + bidirectional.getBackwardStates()
+                    + " backward states, "
+                    + (solution == null ? "no solution" : bidirectional.getForwardPushes() + " + "
+                    + bidirectional.getBackwardPushes() + " pushes"));
+        }
+    }
+}
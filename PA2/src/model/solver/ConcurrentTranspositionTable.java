@@ -0,0 +1,144 @@
+package model.solver;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free version of {@link TranspositionTable} for searches running on many threads. The table is split into
+ * stripes chosen by the top bits of the hash, each an open addressing table claimed slot by slot with CAS, so
+ * threads only contend when they touch the very same slot. The capacity is fixed while threads use the table; it is
+ * grown with {@link #reserve(int)} in between.
+ */
+class ConcurrentTranspositionTable implements StateTable {
+    private static final int STRIPE_BITS = 6;
+
+    private final AtomicLongArray[] keys = new AtomicLongArray[1 << STRIPE_BITS];
+    //the number of pushes plus 1, so that 0 means a slot claimed by a thread which did not store its value yet
+    private final AtomicIntegerArray[] values = new AtomicIntegerArray[1 << STRIPE_BITS];
+    private int slotMask;
+    private final LongAdder size = new LongAdder();
+    private volatile boolean full;
+
+    /**
+     * @param expectedSize The number of states the table must be able to hold at first
+     */
+    ConcurrentTranspositionTable(int expectedSize) {
+        int capacity = stripeCapacity(expectedSize);
+        slotMask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = new AtomicLongArray(capacity);
+            values[i] = new AtomicIntegerArray(capacity);
+        }
+    }
+
+    /**
+     * Grows the table, if needed, so that it can hold the given number of states in total. At least doubles the
+     * capacity when it grows, so that reserving a little more every time costs amortized constant time per state.
+     * Not thread-safe: it must only be called while no other thread uses the table, e.g. between two batches of a
+     * search.
+     *
+     * @param states The number of states the table must be able to hold
+     */
+    void reserve(int states) {
+        int capacity = stripeCapacity(states);
+        if (capacity <= slotMask + 1)
+            return;
+        capacity = Math.max(capacity, (slotMask + 1) * 2);
+        int mask = capacity - 1;
+        for (int i = 0; i < keys.length; i++) {
+            AtomicLongArray oldKeys = keys[i];
+            AtomicIntegerArray oldValues = values[i];
+            keys[i] = new AtomicLongArray(capacity);
+            values[i] = new AtomicIntegerArray(capacity);
+            for (int j = 0; j < oldKeys.length(); j++) {
+                long k = oldKeys.get(j);
+                if (k == 0)
+                    continue;
+                int slot = (int) k & mask;
+                while (keys[i].get(slot) != 0)
+                    slot = (slot + 1) & mask;
+                keys[i].set(slot, k);
+                values[i].set(slot, oldValues.get(j));
+            }
+        }
+        slotMask = mask;
+    }
+
+    //room for twice the states a stripe gets on average, as a power of 2
+    private static int stripeCapacity(int states) {
+        int perStripe = Math.max(16, (states >> STRIPE_BITS) * 2);
+        return Integer.highestOneBit(perStripe - 1) << 1;
+    }
+
+    @Override
+    public int size() {
+        return size.intValue();
+    }
+
+    @Override
+    public boolean isFull() {
+        return full;
+    }
+
+    @Override
+    public int get(long key) {
+        long k = nonZero(key);
+        int stripe = stripe(k);
+        AtomicLongArray stripeKeys = keys[stripe];
+        int slot = (int) k & slotMask;
+        for (int probes = 0; probes <= slotMask; probes++, slot = (slot + 1) & slotMask) {
+            long current = stripeKeys.get(slot);
+            if (current == 0)
+                return -1;
+            if (current == k)
+                return values[stripe].get(slot) - 1;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean offer(long key, int g) {
+        long k = nonZero(key);
+        int stripe = stripe(k);
+        AtomicLongArray stripeKeys = keys[stripe];
+        int slot = (int) k & slotMask;
+        for (int probes = 0; probes <= slotMask; probes++, slot = (slot + 1) & slotMask) {
+            long current = stripeKeys.get(slot);
+            if (current == 0) {
+                if (!stripeKeys.compareAndSet(slot, 0, k)) {
+                    current = stripeKeys.get(slot);
+                } else {
+                    size.increment();
+                    current = k;
+                }
+            }
+            if (current == k)
+                return lower(values[stripe], slot, g + 1);
+        }
+        full = true;
+        return false;
+    }
+
+    /**
+     * @return Whether the stored value was lowered to the given one
+     */
+    private static boolean lower(AtomicIntegerArray stripeValues, int slot, int value) {
+        while (true) {
+            int current = stripeValues.get(slot);
+            if (current != 0 && current <= value)
+                return false;
+            if (stripeValues.compareAndSet(slot, current, value))
+                return true;
+        }
+    }
+
+    private static int stripe(long key) {
+        return (int) (key >>> (Long.SIZE - STRIPE_BITS));
+    }
+
+    //0 marks an empty slot, so it cannot be used as a key
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+}
@@ -0,0 +1,316 @@
+package model.solver;
+
+import model.Map.Board;
+import model.Map.CrateMatching;
+import model.Map.LevelAnalysis;
+import model.Map.Map;
+import model.Map.PatternSearch;
+import model.Map.PushPlanner;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates the successors of search nodes on a board of its own, estimating the pushes left by a
+ * {@link CrateMatching} which is updated per push. Between expansions the matching is only updated for the crates
+ * which stand elsewhere in the next node, which in a best-first search is often a child of the last one, rather than
+ * solved again. Every thread of a search needs its own expander.
+ */
+class Expander {
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+
+    private final Board board;
+    //the state of the board the search starts from, which replay starts from
+    private final Board.Snapshot startState;
+    private final CrateMatching matching;
+    private final PatternSearch patterns = new PatternSearch();
+    private final int[] pushes;
+    private final boolean macros;
+    private final LevelAnalysis analysis;
+    private final PushPlanner planner;
+    //the pushes of the current macro push after the first, encoded like pushes
+    private int[] macroPushes = new int[16];
+    private int numMacroPushes;
+
+    /**
+     * @param start The board the search starts from. It is copied, not modified.
+     */
+    Expander(Board start) {
+        this(start, true);
+    }
+
+    /**
+     * @param start  The board the search starts from. It is copied, not modified.
+     * @param macros Whether to push crates on through tunnels and into goal rooms (see {@link LevelAnalysis}),
+     *                   so that every child may be several pushes deeper than its parent
+     */
+    Expander(Board start, boolean macros) {
+        this.board = start.copy();
+        this.startState = board.snapshot();
+        this.matching = new CrateMatching(board);
+        this.pushes = new int[board.getNumCrates() * DIRECTIONS.length];
+        this.macros = macros;
+        this.analysis = board.getAnalysis();
+        this.planner = new PushPlanner(board);
+    }
+
+    /**
+     * @return The node for the current state of the start board
+     */
+    SearchNode root() {
+        matching.reset();
+        return new SearchNode(board.snapshot(), board.getHash(), null, -1, -1, 0, matching.getCost());
+    }
+
+    /**
+     * @param node  The node to check
+     * @param table The states reached so far
+     * @return Whether the state of the node was reached with fewer pushes since the node was created
+     */
+    static boolean isStale(SearchNode node, StateTable table) {
+        int best = table.get(node.hash);
+        return best != -1 && best < node.g;
+    }
+
+    /**
+     * @param node The node to check
+     * @return Whether every destination holds a crate in the state of the node
+     */
+    boolean isSolved(SearchNode node) {
+        board.restore(node.state);
+        return board.isAllDestsCompleted();
+    }
+
+    /**
+     * Tries every push the player can reach. Pushes onto dead squares, into a deadlock around the pushed crate which
+     * freeze detection or a {@link PatternSearch} proves, or leaving crates without a destination they can all reach
+     * are skipped; the other successors are offered to the table and added to the children if the table took them.
+     * The pushes inside a macro push become children of each other without a state, which are only there to be
+     * replayed.
+     *
+     * @param node     The node to expand
+     * @param table    The states reached so far
+     * @param children The list to add the new nodes to
+     */
+    void expand(SearchNode node, StateTable table, List<SearchNode> children) {
+        board.restore(node.state);
+        matching.update();
+        int numPushes = collectPushes();
+        for (int i = 0; i < numPushes; i++) {
+            int id = push(pushes[i]);
+            if (!matching.isDeadlocked() && !patterns.isDeadlocked(board, id)) {
+                long hash = board.getHash();
+                int g = node.g + 1 + numMacroPushes;
+                if (table.offer(hash, g)) {
+                    SearchNode parent = node;
+                    int pushFrom = pushes[i] / DIRECTIONS.length;
+                    int pushDir = pushes[i] % DIRECTIONS.length;
+                    for (int k = 0; k < numMacroPushes; k++) {
+                        parent = new SearchNode(null, 0, parent, pushFrom, pushDir, parent.g + 1, 0);
+                        pushFrom = macroPushes[k] / DIRECTIONS.length;
+                        pushDir = macroPushes[k] % DIRECTIONS.length;
+                    }
+                    children.add(new SearchNode(board.snapshot(), hash, parent, pushFrom, pushDir, g,
+                            g + matching.getCost()));
+                }
+            }
+            undo(pushes[i], id);
+        }
+    }
+
+    /**
+     * As {@link #expand(SearchNode, StateTable, List)}, for a search which keeps no nodes: expands the state the
+     * board was last put in by {@link #replay(int[], int)}, and writes the successors to the arrays instead of
+     * offering them to a table. Each of the arrays needs room for 4 successors per crate.
+     *
+     * @param g      The number of pushes the state was reached with
+     * @param hashes The hashes of the successors
+     * @param moves  The push leading to each successor, encoded as crate square * 4 + direction. If it started a
+     *               macro push, the pushes after it follow from replaying it.
+     * @param gs     The number of pushes each successor is reached with
+     * @param fs     That plus the lower bound of the pushes left
+     * @return The number of successors
+     */
+    int expand(int g, long[] hashes, int[] moves, int[] gs, int[] fs) {
+        int numPushes = collectPushes();
+        int count = 0;
+        for (int i = 0; i < numPushes; i++) {
+            int id = push(pushes[i]);
+            if (!matching.isDeadlocked() && !patterns.isDeadlocked(board, id)) {
+                hashes[count] = board.getHash();
+                moves[count] = pushes[i];
+                gs[count] = g + 1 + numMacroPushes;
+                fs[count] = gs[count] + matching.getCost();
+                count++;
+            }
+            undo(pushes[i], id);
+        }
+        return count;
+    }
+
+    /**
+     * Puts the board into the state reached from the start by the pushes, each followed by the macro push it
+     * started, as in {@link #expand(int, long[], int[], int[], int[])}, and brings the matching up to date.
+     *
+     * @param path   The pushes, encoded as crate square * 4 + direction
+     * @param length The number of pushes
+     */
+    void replay(int[] path, int length) {
+        board.restore(startState);
+        for (int k = 0; k < length; k++)
+            replayPush(path[k]);
+        matching.update();
+    }
+
+    /**
+     * @param path   The pushes, as in {@link #replay(int[], int)}
+     * @param length The number of pushes
+     * @return Every single push they make, including those of the macro pushes they started
+     */
+    int[] unfold(int[] path, int length) {
+        board.restore(startState);
+        int[] unfolded = new int[length];
+        int count = 0;
+        for (int k = 0; k < length; k++) {
+            replayPush(path[k]);
+            if (count + 1 + numMacroPushes > unfolded.length)
+                unfolded = Arrays.copyOf(unfolded, Math.max(unfolded.length * 2, count + 1 + numMacroPushes));
+            unfolded[count++] = path[k];
+            for (int m = 0; m < numMacroPushes; m++)
+                unfolded[count++] = macroPushes[m];
+        }
+        matching.update();
+        return Arrays.copyOf(unfolded, count);
+    }
+
+    /**
+     * @return Whether every destination holds a crate in the state the board was last put in by
+     * {@link #replay(int[], int)}
+     */
+    boolean isSolved() {
+        return board.isAllDestsCompleted();
+    }
+
+    /**
+     * Makes the push, followed by the macro push it starts if any, and reassigns the crate.
+     *
+     * @param push The push, encoded as crate square * 4 + direction
+     * @return The id of the pushed crate
+     */
+    private int push(int push) {
+        replayPush(push);
+        int id = board.getLastPushedCrate();
+        matching.crateMoved(id);
+        return id;
+    }
+
+    private void replayPush(int push) {
+        int dir = push % DIRECTIONS.length;
+        Map.Direction d = DIRECTIONS[dir];
+        board.setPlayer(board.neighbour(push / DIRECTIONS.length, d.getOpposite().ordinal()));
+        board.movePlayer(d);
+        numMacroPushes = 0;
+        if (macros)
+            pushOn(dir);
+    }
+
+    /**
+     * Takes back a push made by {@link #push(int)}, together with its macro push.
+     *
+     * @param push The push
+     * @param id   The id of the pushed crate
+     */
+    private void undo(int push, int id) {
+        for (int k = numMacroPushes - 1; k >= 0; k--)
+            undoSingle(macroPushes[k]);
+        undoSingle(push);
+        matching.crateMoved(id);
+    }
+
+    private void undoSingle(int push) {
+        //the player stands where the crate was before the push
+        board.setPlayer(push / DIRECTIONS.length);
+        board.undoMove(DIRECTIONS[push % DIRECTIONS.length], true);
+    }
+
+    /**
+     * Keeps pushing the crate which was just pushed while it is in a tunnel with the player behind it, and drives it
+     * to the next destination of a goal room when it was pushed onto the entrance from outside.
+     *
+     * @param dir The ordinal of the direction of the push
+     */
+    private void pushOn(int dir) {
+        while (true) {
+            int crate = board.getCrate(board.getLastPushedCrate());
+            int room = analysis.getRoomEnteredAt(crate);
+            if (room != -1 && analysis.getRoom(board.getPlayer()) != room) {
+                int filled = countFilledInOrder(room);
+                if (filled != -1 && filled < analysis.getRoomSize(room)) {
+                    int[] plan = planner.plan(crate, analysis.getRoomDest(room, filled));
+                    if (plan != null) {
+                        for (int push : plan) {
+                            Map.Direction d = DIRECTIONS[push % DIRECTIONS.length];
+                            board.setPlayer(board.neighbour(push / DIRECTIONS.length, d.getOpposite().ordinal()));
+                            board.movePlayer(d);
+                            recordMacroPush(push);
+                        }
+                    }
+                }
+                return;
+            }
+
+            int next = board.neighbour(crate, dir);
+            if (board.isDest(crate) || !analysis.isTunnel(crate, dir) || !analysis.isTunnel(board.getPlayer(), dir)
+                    || next == -1 || board.isWall(next) || board.hasCrate(next) || board.isDeadSquare(next))
+                return;
+            board.movePlayer(DIRECTIONS[dir]);
+            recordMacroPush(crate * DIRECTIONS.length + dir);
+        }
+    }
+
+    /**
+     * @param room The goal room
+     * @return How many destinations of the room are filled, or -1 if the crates in it are not exactly on the first
+     * destinations of its fill order
+     */
+    private int countFilledInOrder(int room) {
+        int count = 0;
+        for (int id = 0; id < board.getNumCrates(); id++) {
+            if (analysis.getRoom(board.getCrate(id)) == room)
+                count++;
+        }
+        for (int k = 0; k < count; k++) {
+            if (!board.hasCrate(analysis.getRoomDest(room, k)))
+                return -1;
+        }
+        return count;
+    }
+
+    private void recordMacroPush(int push) {
+        if (numMacroPushes == macroPushes.length)
+            macroPushes = Arrays.copyOf(macroPushes, numMacroPushes * 2);
+        macroPushes[numMacroPushes++] = push;
+    }
+
+    /**
+     * Collects every push the player can reach which does not move a crate onto a dead square.
+     *
+     * @return The number of pushes collected into {@link #pushes}, each encoded as crate square * 4 + direction
+     */
+    private int collectPushes() {
+        int count = 0;
+        for (int id = 0; id < board.getNumCrates(); id++) {
+            int crate = board.getCrate(id);
+            for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+                int behind = board.neighbour(crate, DIRECTIONS[dir].getOpposite().ordinal());
+                int target = board.neighbour(crate, dir);
+                if (behind == -1 || target == -1 || !board.isInPlayerRegion(behind))
+                    continue;
+                if (board.isWall(target) || board.hasCrate(target) || board.isDeadSquare(target))
+                    continue;
+                pushes[count++] = crate * DIRECTIONS.length + dir;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,118 @@
+package model.solver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The open list of {@link OffHeapSolver}: a binary min-heap of state hashes kept in direct buffers, ordered by f and,
+ * on ties, by the highest g. Like {@link OffHeapTranspositionTable}, its size is fixed by the memory budget given up
+ * front and the garbage collector never scans it. Not thread-safe.
+ */
+class OffHeapOpenList {
+    //each entry holds a 64 bit priority, made of f and g, and the 64 bit key of the state
+    private static final int ENTRY_BYTES = 2 * Long.BYTES;
+    //a buffer is indexed by int, so the entries are split into chunks of at most this many
+    private static final int MAX_CHUNK_ENTRIES = 1 << 26;
+
+    private final ByteBuffer[] chunks;
+    private final int chunkEntries;
+    private final long capacity;
+    private long size;
+
+    /**
+     * @param maxBytes The memory budget of the list
+     */
+    OffHeapOpenList(long maxBytes) {
+        long entries = Math.max(16, maxBytes / ENTRY_BYTES);
+        this.chunkEntries = (int) Math.min(entries, MAX_CHUNK_ENTRIES);
+        this.chunks = new ByteBuffer[(int) (entries / chunkEntries)];
+        this.capacity = (long) chunks.length * chunkEntries;
+        for (int i = 0; i < chunks.length; i++)
+            chunks[i] = ByteBuffer.allocateDirect(chunkEntries * ENTRY_BYTES);
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param key The state hash
+     * @param g   The number of pushes the state was reached with
+     * @param f   That plus the lower bound of the pushes left
+     * @return Whether the state was added, or false if the list is full
+     */
+    boolean add(long key, int g, int f) {
+        if (size == capacity)
+            return false;
+        long priority = (long) f << 32 | (Integer.MAX_VALUE - g);
+        long i = size++;
+        while (i > 0) {
+            long parent = (i - 1) / 2;
+            if (priorityAt(parent) <= priority)
+                break;
+            set(i, priorityAt(parent), keyAt(parent));
+            i = parent;
+        }
+        set(i, priority, key);
+        return true;
+    }
+
+    /**
+     * @return The hash of the state with the lowest f, which the list must not be empty for
+     */
+    long key() {
+        return keyAt(0);
+    }
+
+    /**
+     * @return The number of pushes the state returned by {@link #key()} was added with
+     */
+    int g() {
+        return Integer.MAX_VALUE - (int) priorityAt(0);
+    }
+
+    /**
+     * Removes the state returned by {@link #key()}.
+     */
+    void remove() {
+        long last = --size;
+        long priority = priorityAt(last);
+        long key = keyAt(last);
+        long i = 0;
+        while (true) {
+            long child = 2 * i + 1;
+            if (child >= size)
+                break;
+            if (child + 1 < size && priorityAt(child + 1) < priorityAt(child))
+                child++;
+            if (priority <= priorityAt(child))
+                break;
+            set(i, priorityAt(child), keyAt(child));
+            i = child;
+        }
+        if (size > 0)
+            set(i, priority, key);
+    }
+
+    private ByteBuffer chunk(long i) {
+        return chunks[(int) (i / chunkEntries)];
+    }
+
+    private int offset(long i) {
+        return (int) (i % chunkEntries) * ENTRY_BYTES;
+    }
+
+    private long priorityAt(long i) {
+        return chunk(i).getLong(offset(i));
+    }
+
+    private long keyAt(long i) {
+        return chunk(i).getLong(offset(i) + Long.BYTES);
+    }
+
+    private void set(long i, long priority, long key) {
+        ByteBuffer chunk = chunk(i);
+        int offset = offset(i);
+        chunk.putLong(offset, priority);
+        chunk.putLong(offset + Long.BYTES, key);
+    }
+}
@@ -0,0 +1,216 @@
+package model.solver;
+
+import model.Exceptions.InvalidMapException;
+import model.GameLevel;
+import model.Map.Board;
+import model.Map.Map;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Finds push-optimal solutions with the same A* search as {@link Solver}, for searches too large for the Java heap.
+ * No search node is kept: the reached states live in an {@link OffHeapTranspositionTable}, each with the hash of its
+ * parent and the push in between, and the open list is an {@link OffHeapOpenList} of state hashes. Before a state is
+ * expanded, its path is followed back through the table and replayed from the start, so the heap only holds the
+ * board being expanded, whatever the number of states.
+ * <p>
+ * The memory budget is fixed up front and split evenly between the table and the open list; the search gives up
+ * when either is full. The table can be kept in a memory-mapped file instead, which the OS pages to disk as needed.
+ * <p>
+ * A search gives up when its thread is interrupted, so it can be cancelled through {@link java.util.concurrent.Future}.
+ */
+public class OffHeapSolver {
+    public static final long DEFAULT_MAX_BYTES = 1L << 30;
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+
+    private final long maxStates;
+    private final long maxBytes;
+    private final Path file;
+    private long numStates;
+    private boolean givenUp;
+
+    public OffHeapSolver() {
+        this(Long.MAX_VALUE, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Keeps the search in direct memory.
+     *
+     * @param maxStates The number of distinct states after which the search gives up
+     * @param maxBytes  The memory budget of the search
+     */
+    public OffHeapSolver(long maxStates, long maxBytes) {
+        this(maxStates, maxBytes, null);
+    }
+
+    /**
+     * Keeps the table of reached states in a memory-mapped file, which is deleted when the search ends.
+     *
+     * @param maxStates The number of distinct states after which the search gives up
+     * @param maxBytes  The memory budget of the search, half of which is the size of the file
+     * @param file      The file to create or overwrite for every search
+     */
+    public OffHeapSolver(long maxStates, long maxBytes, Path file) {
+        this.maxStates = maxStates;
+        this.maxBytes = maxBytes;
+        this.file = file;
+    }
+
+    /**
+     * @return The number of distinct states reached by the last search
+     */
+    public long getNumStates() {
+        return numStates;
+    }
+
+    /**
+     * @return Whether the last search stopped before it could tell whether there is a solution, as it reached its
+     * state limit, ran out of memory or was interrupted. A null solution only proves there is none when this is false.
+     */
+    public boolean hasGivenUp() {
+        return givenUp;
+    }
+
+    /**
+     * @param rep The 2d char array read from the map text file
+     * @return The solution, or null if there is none within the limits
+     * @throws InvalidMapException When the map is invalid
+     */
+    public Solution solve(char[][] rep) throws InvalidMapException {
+        Board board = new Board();
+        board.initialize(rep.length, rep[0].length, rep);
+        return solve(board);
+    }
+
+    /**
+     * @param map The map to solve from its current state. The map itself is not modified.
+     * @return The solution, or null if there is none within the limits
+     */
+    public Solution solve(Map map) {
+        return solve(map.getBoard());
+    }
+
+    /**
+     * @param start The board to solve from its current state. The board itself is not modified.
+     * @return The solution, or null if there is none within the limits, or the thread was interrupted
+     * @throws IllegalStateException When the file for the table cannot be created
+     */
+    public Solution solve(Board start) {
+        numStates = 0;
+        givenUp = true;
+        if (start.getNumCrates() != start.getNumDests())
+            return null;
+
+        OffHeapTranspositionTable table;
+        try {
+            table = file == null ? new OffHeapTranspositionTable(maxBytes / 2)
+                    : new OffHeapTranspositionTable(maxBytes / 2, file);
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot create " + file, e);
+        }
+        try {
+            return search(start, table, new OffHeapOpenList(maxBytes / 2));
+        } finally {
+            numStates = table.getSize();
+            try {
+                table.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private Solution search(Board start, OffHeapTranspositionTable table, OffHeapOpenList open) {
+        Expander expander = new Expander(start);
+        //the successors of the state being expanded, at most 4 pushes per crate
+        int maxChildren = start.getNumCrates() * 4;
+        long[] hashes = new long[maxChildren];
+        int[] moves = new int[maxChildren];
+        int[] gs = new int[maxChildren];
+        int[] fs = new int[maxChildren];
+        int[] path = new int[64];
+
+        SearchNode root = expander.root();
+        table.offer(root.hash, 0, 0, -1);
+        open.add(root.hash, 0, root.f);
+
+        while (!open.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            long key = open.key();
+            int g = open.g();
+            open.remove();
+            long slot = table.slotOf(key);
+            if (table.valueAt(slot) < g)
+                continue;
+
+            //the pushes from the start, followed back through the table
+            int length = 0;
+            for (long s = slot; table.pushAt(s) != -1; s = table.slotOf(table.parentAt(s))) {
+                if (length == path.length)
+                    path = Arrays.copyOf(path, length * 2);
+                path[length++] = table.pushAt(s);
+            }
+            for (int i = 0, j = length - 1; i < j; i++, j--) {
+                int push = path[i];
+                path[i] = path[j];
+                path[j] = push;
+            }
+            expander.replay(path, length);
+            if (expander.isSolved()) {
+                givenUp = false;
+                return toSolution(start, expander.unfold(path, length));
+            }
+
+            int numChildren = expander.expand(g, hashes, moves, gs, fs);
+            for (int i = 0; i < numChildren; i++) {
+                if (table.offer(hashes[i], gs[i], key, moves[i]) && !open.add(hashes[i], gs[i], fs[i]))
+                    return null;
+            }
+            if (table.getSize() > maxStates || table.isFull())
+                return null;
+        }
+        givenUp = !open.isEmpty();
+        return null;
+    }
+
+    /**
+     * @param start  The board the search started from. It is copied, not modified.
+     * @param pushes Every push of the solution, encoded as crate square * 4 + direction
+     * @return The solution
+     */
+    private static Solution toSolution(Board start, int[] pushes) {
+        Board board = start.copy();
+        StringBuilder moves = new StringBuilder();
+        for (int push : pushes)
+            PathFinder.appendPush(board, push / DIRECTIONS.length, push % DIRECTIONS.length, moves);
+        return new Solution(moves.toString(), pushes.length);
+    }
+
+    /**
+     * Compares the states reached and the time taken with {@link Solver}. Run with the map files to solve, and with a
+     * small heap to see where {@link Solver} runs out of it. Direct memory is limited to the heap size by default, so
+     * it needs raising with {@code -XX:MaxDirectMemorySize} to fit {@link #DEFAULT_MAX_BYTES}.
+     */
+    public static void main(String[] args) throws InvalidMapException {
+        for (String filename : args) {
+            GameLevel level = new GameLevel();
+            level.loadMap(filename);
+
+            Solver solver = new Solver();
+            long start = System.nanoTime();
+            Solution solution = solver.solve(level.getMap());
+            System.out.println(filename + ": Solver " + describe(solution, solver.getNumStates(), start));
+
+            OffHeapSolver offHeap = new OffHeapSolver();
+            start = System.nanoTime();
+            solution = offHeap.solve(level.getMap());
+            System.out.println(filename + ": OffHeapSolver " + describe(solution, offHeap.getNumStates(), start));
+        }
+    }
+
+    private static String describe(Solution solution, long states, long start) {
+        return (solution == null ? "no solution" : solution.getNumPushes() + " pushes") + ", " + states
+                + " states, " + (System.nanoTime() - start) / 1_000_000 + " ms";
+    }
+}
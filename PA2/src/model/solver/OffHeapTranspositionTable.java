@@ -0,0 +1,247 @@
+package model.solver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link StateTable} kept outside the Java heap, for the searches of {@link OffHeapSolver}. Besides the number of
+ * pushes, every state keeps the hash of the state it was reached from and the push in between, so the path to any
+ * state can be followed back through the table and no search node has to stay on the heap. The table never grows:
+ * its size is fixed by the memory budget given up front, and once it is full, new states are refused and
+ * {@link #isFull()} tells the search to stop. The slots live in direct buffers, or in a memory-mapped file when the
+ * table should spill to disk rather than take up RAM. Either way the garbage collector never scans them. Not
+ * thread-safe.
+ */
+class OffHeapTranspositionTable implements StateTable, Closeable {
+    //each slot holds a 64 bit key, a 32 bit value, the 64 bit key of the parent and the 32 bit push from it
+    private static final int SLOT_BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+    //a buffer is indexed by int, so the slots are split into chunks of at most this many
+    private static final int MAX_CHUNK_SLOTS = 1 << 26;
+    private static final float MAX_LOAD = 0.75f;
+
+    //every chunk holds the keys of its slots first, then their parents, their values and their pushes
+    private final ByteBuffer[] chunks;
+    private final int chunkSlots;
+    private final long slotMask;
+    private final long maxSize;
+    private final FileChannel channel;
+    private final Path file;
+    private long size;
+    private boolean full;
+
+    /**
+     * Keeps the table in direct memory.
+     *
+     * @param maxBytes The memory budget of the table
+     */
+    OffHeapTranspositionTable(long maxBytes) {
+        this(maxBytes, null, null);
+    }
+
+    /**
+     * Keeps the table in a memory-mapped file, which the OS pages to disk as needed. The file is deleted on
+     * {@link #close()}.
+     *
+     * @param maxBytes The size of the file
+     * @param file     The file to create or overwrite
+     * @throws IOException When the file cannot be created or mapped
+     */
+    OffHeapTranspositionTable(long maxBytes, Path file) throws IOException {
+        this(maxBytes, FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE), file);
+    }
+
+    private OffHeapTranspositionTable(long maxBytes, FileChannel channel, Path file) {
+        long capacity = Long.highestOneBit(Math.max(16, maxBytes / SLOT_BYTES));
+        this.slotMask = capacity - 1;
+        this.maxSize = (long) (capacity * MAX_LOAD);
+        this.chunkSlots = (int) Math.min(capacity, MAX_CHUNK_SLOTS);
+        this.chunks = new ByteBuffer[(int) (capacity / chunkSlots)];
+        this.channel = channel;
+        this.file = file;
+
+        long chunkBytes = (long) chunkSlots * SLOT_BYTES;
+        for (int i = 0; i < chunks.length; i++) {
+            if (channel == null) {
+                chunks[i] = ByteBuffer.allocateDirect((int) chunkBytes);
+            } else {
+                try {
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * chunkBytes, chunkBytes);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Cannot map " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The number of states the table holds before it is full
+     */
+    long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return The number of distinct states stored, which unlike {@link #size()} may exceed the range of an int
+     */
+    long getSize() {
+        return size;
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isFull() {
+        return full;
+    }
+
+    @Override
+    public int get(long key) {
+        long k = nonZero(key);
+        for (long slot = spread(k) & slotMask; ; slot = (slot + 1) & slotMask) {
+            long current = keyAt(slot);
+            if (current == 0)
+                return -1;
+            if (current == k)
+                return valueAt(slot);
+        }
+    }
+
+    @Override
+    public boolean offer(long key, int g) {
+        return offer(key, g, 0, -1);
+    }
+
+    /**
+     * As {@link #offer(long, int)}, also storing where the state was reached from if the value was stored.
+     *
+     * @param key    The state hash
+     * @param g      The number of pushes the state was reached with
+     * @param parent The hash of the state it was reached from
+     * @param push   The push from that state, or -1 for the start of the search
+     * @return Whether the value was stored, i.e. whether the state should be expanded
+     */
+    boolean offer(long key, int g, long parent, int push) {
+        long k = nonZero(key);
+        long slot = spread(k) & slotMask;
+        long current;
+        while ((current = keyAt(slot)) != 0 && current != k)
+            slot = (slot + 1) & slotMask;
+
+        if (current == k) {
+            if (valueAt(slot) <= g)
+                return false;
+            set(slot, g, parent, push);
+            return true;
+        }
+        if (size >= maxSize) {
+            full = true;
+            return false;
+        }
+        chunk(slot).putLong(keyOffset(slot), k);
+        set(slot, g, parent, push);
+        size++;
+        return true;
+    }
+
+    /**
+     * @param key The state hash
+     * @return The slot holding the state, or -1 if it has not been stored
+     */
+    long slotOf(long key) {
+        long k = nonZero(key);
+        for (long slot = spread(k) & slotMask; ; slot = (slot + 1) & slotMask) {
+            long current = keyAt(slot);
+            if (current == 0)
+                return -1;
+            if (current == k)
+                return slot;
+        }
+    }
+
+    /**
+     * @param slot A slot holding a state
+     * @return The lowest number of pushes the state was reached with
+     */
+    int valueAt(long slot) {
+        return chunk(slot).getInt(valueOffset(slot));
+    }
+
+    /**
+     * @param slot A slot holding a state
+     * @return The hash of the state it was reached from with {@link #valueAt(long)} pushes
+     */
+    long parentAt(long slot) {
+        return chunk(slot).getLong(parentOffset(slot));
+    }
+
+    /**
+     * @param slot A slot holding a state
+     * @return The push from the parent, or -1 if the state is the start of the search
+     */
+    int pushAt(long slot) {
+        return chunk(slot).getInt(pushOffset(slot));
+    }
+
+    /**
+     * Releases the file, if the table was mapped to one, and deletes it. The memory itself is released once the
+     * table is garbage collected.
+     *
+     * @throws IOException When the file cannot be closed or deleted
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private ByteBuffer chunk(long slot) {
+        return chunks[(int) (slot / chunkSlots)];
+    }
+
+    private int keyOffset(long slot) {
+        return (int) (slot % chunkSlots) * Long.BYTES;
+    }
+
+    private int parentOffset(long slot) {
+        return chunkSlots * Long.BYTES + (int) (slot % chunkSlots) * Long.BYTES;
+    }
+
+    private int valueOffset(long slot) {
+        return chunkSlots * 2 * Long.BYTES + (int) (slot % chunkSlots) * Integer.BYTES;
+    }
+
+    private int pushOffset(long slot) {
+        return chunkSlots * (2 * Long.BYTES + Integer.BYTES) + (int) (slot % chunkSlots) * Integer.BYTES;
+    }
+
+    private long keyAt(long slot) {
+        return chunk(slot).getLong(keyOffset(slot));
+    }
+
+    private void set(long slot, int value, long parent, int push) {
+        ByteBuffer chunk = chunk(slot);
+        chunk.putInt(valueOffset(slot), value);
+        chunk.putLong(parentOffset(slot), parent);
+        chunk.putInt(pushOffset(slot), push);
+    }
+
+    //0 marks an empty slot, so it cannot be used as a key
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    private static long spread(long key) {
+        return key ^ (key >>> 29);
+    }
+}
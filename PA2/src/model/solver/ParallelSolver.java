@@ -0,0 +1,206 @@
+package model.solver;
+
+import model.Exceptions.InvalidMapException;
+import model.Map.Board;
+import model.Map.LevelAnalysis;
+import model.Map.Map;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The {@link Solver} search spread over the threads of a {@link ForkJoinPool}. Nodes are kept in buckets by their
+ * f value (pushes so far plus lower bound). The lowest bucket is expanded as one batch, which is split recursively
+ * into tasks the pool's work-stealing balances across threads; every task expands on an {@link Expander} of its own
+ * for as long as it runs, and all of them share a lock-free {@link ConcurrentTranspositionTable}. As the lower bound is consistent, the f values of
+ * later buckets never drop, so the first solved node found is still push-optimal.
+ */
+public class ParallelSolver {
+    //below this many nodes a task expands them itself rather than splitting further
+    private static final int BATCH_THRESHOLD = 32;
+    //the number of states the transposition table is first allocated for
+    private static final int INITIAL_STATES = 1 << 12;
+
+    private final ForkJoinPool pool;
+    private final int maxStates;
+    private int numStates;
+
+    /**
+     * Uses the common pool, which has one thread per core.
+     */
+    public ParallelSolver() {
+        this(ForkJoinPool.commonPool(), Solver.DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * @param pool      The pool to run the search on
+     * @param maxStates The number of distinct states after which the search gives up. The transposition table
+     *                  starts small and grows with the search, up to room for this many states.
+     */
+    public ParallelSolver(ForkJoinPool pool, int maxStates) {
+        this.pool = pool;
+        this.maxStates = maxStates;
+    }
+
+    /**
+     * @return The number of distinct states reached by the last search
+     */
+    public int getNumStates() {
+        return numStates;
+    }
+
+    /**
+     * @param rep The 2d char array read from the map text file
+     * @return The solution, or null if there is none within the state limit
+     * @throws InvalidMapException When the map is invalid
+     */
+    public Solution solve(char[][] rep) throws InvalidMapException {
+        Board board = new Board();
+        board.initialize(rep.length, rep[0].length, rep);
+        return solve(board);
+    }
+
+    /**
+     * @param map The map to solve from its current state. The map itself is not modified.
+     * @return The solution, or null if there is none within the state limit
+     */
+    public Solution solve(Map map) {
+        return solve(map.getBoard());
+    }
+
+    /**
+     * @param start The board to solve from its current state. The board itself is not modified.
+     * @return The solution, or null if there is none within the state limit
+     */
+    public Solution solve(Board start) {
+        numStates = 0;
+        if (start.getNumCrates() != start.getNumDests())
+            return null;
+
+        Expanders expanders = new Expanders(start);
+        ConcurrentTranspositionTable table = new ConcurrentTranspositionTable(Math.min(maxStates, INITIAL_STATES));
+        //a node is expanded into at most one new state per crate and direction
+        long maxChildren = (long) Map.Direction.values().length * start.getNumCrates();
+        AtomicReference<SearchNode> solved = new AtomicReference<>();
+
+        ArrayList<ArrayList<SearchNode>> buckets = new ArrayList<>();
+        Expander first = expanders.take();
+        SearchNode root = first.root();
+        expanders.give(first);
+        if (root.f >= LevelAnalysis.UNREACHABLE)
+            return null;
+        table.offer(root.hash, 0);
+        bucket(buckets, root.f).add(root);
+
+        for (int f = root.f; f < buckets.size(); f++) {
+            while (!buckets.get(f).isEmpty()) {
+                ArrayList<SearchNode> batch = buckets.get(f);
+                buckets.set(f, new ArrayList<>());
+
+                //the table cannot grow while the tasks use it, so make room for every child the batch can have
+                table.reserve((int) Math.min(maxStates, table.size() + batch.size() * maxChildren));
+                List<SearchNode> children = pool.invoke(
+                        new ExpandTask(batch, 0, batch.size(), expanders, table, solved));
+                if (solved.get() != null) {
+                    numStates = table.size();
+                    return PathFinder.toSolution(start, solved.get());
+                }
+                if (table.size() > maxStates || table.isFull()) {
+                    numStates = table.size();
+                    return null;
+                }
+                for (SearchNode child : children)
+                    bucket(buckets, child.f).add(child);
+            }
+        }
+        numStates = table.size();
+        return null;
+    }
+
+    private static ArrayList<SearchNode> bucket(ArrayList<ArrayList<SearchNode>> buckets, int f) {
+        while (buckets.size() <= f)
+            buckets.add(new ArrayList<>());
+        return buckets.get(f);
+    }
+
+    /**
+     * The expanders of one search, which its tasks take while they run and give back when done. No more are created
+     * than tasks ever ran at once, i.e. about one per thread, and they are dropped with the search rather than kept
+     * by the threads of the pool.
+     */
+    private static class Expanders {
+        private final Board start;
+        private final ConcurrentLinkedDeque<Expander> idle = new ConcurrentLinkedDeque<>();
+
+        Expanders(Board start) {
+            this.start = start;
+        }
+
+        Expander take() {
+            Expander expander = idle.poll();
+            return expander != null ? expander : new Expander(start);
+        }
+
+        void give(Expander expander) {
+            idle.push(expander);
+        }
+    }
+
+    /**
+     * Expands a range of a batch, splitting it in halves until it is small enough.
+     */
+    private static class ExpandTask extends RecursiveTask<List<SearchNode>> {
+        private static final long serialVersionUID = 1L;
+
+        private final List<SearchNode> batch;
+        private final int from;
+        private final int to;
+        private final Expanders expanders;
+        private final StateTable table;
+        private final AtomicReference<SearchNode> solved;
+
+        ExpandTask(List<SearchNode> batch, int from, int to, Expanders expanders, StateTable table,
+                   AtomicReference<SearchNode> solved) {
+            this.batch = batch;
+            this.from = from;
+            this.to = to;
+            this.expanders = expanders;
+            this.table = table;
+            this.solved = solved;
+        }
+
+        @Override
+        protected List<SearchNode> compute() {
+            if (to - from > BATCH_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                ExpandTask left = new ExpandTask(batch, from, mid, expanders, table, solved);
+                left.fork();
+                List<SearchNode> children = new ExpandTask(batch, mid, to, expanders, table, solved).compute();
+                children.addAll(left.join());
+                return children;
+            }
+
+            Expander expander = expanders.take();
+            ArrayList<SearchNode> children = new ArrayList<>();
+            try {
+                for (int i = from; i < to && solved.get() == null; i++) {
+                    SearchNode node = batch.get(i);
+                    if (Expander.isStale(node, table))
+                        continue;
+                    if (expander.isSolved(node)) {
+                        solved.compareAndSet(null, node);
+                        break;
+                    }
+                    expander.expand(node, table, children);
+                }
+            } finally {
+                expanders.give(expander);
+            }
+            return children;
+        }
+    }
+}
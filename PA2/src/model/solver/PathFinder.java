@@ -0,0 +1,88 @@
+package model.solver;
+
+import model.Map.Board;
+import model.Map.Map;
+
+import java.util.ArrayDeque;
+
+/**
+ * Turns a sequence of pushes back into player moves, by walking the player to each push along a shortest path.
+ */
+class PathFinder {
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+
+    private PathFinder() {
+    }
+
+    /**
+     * Replays the pushes leading to the node from the start, walking the player to each of them.
+     *
+     * @param start The board the search started from. It is copied, not modified.
+     * @param node  The solved node
+     * @return The solution
+     */
+    static Solution toSolution(Board start, SearchNode node) {
+        ArrayDeque<SearchNode> path = new ArrayDeque<>();
+        for (SearchNode n = node; n.parent != null; n = n.parent)
+            path.push(n);
+
+        Board board = start.copy();
+        StringBuilder moves = new StringBuilder();
+        for (SearchNode n : path)
+            appendPush(board, n.pushFrom, n.pushDir, moves);
+        return new Solution(moves.toString(), path.size());
+    }
+
+    /**
+     * Walks the player to the square behind the crate, then pushes it. Both the walk and the push are applied to the
+     * board and appended to the moves.
+     *
+     * @param board    The board to move on
+     * @param pushFrom The square of the crate to push
+     * @param pushDir  The ordinal of the push direction
+     * @param moves    The moves so far
+     */
+    static void appendPush(Board board, int pushFrom, int pushDir, StringBuilder moves) {
+        appendWalk(board, board.neighbour(pushFrom, DIRECTIONS[pushDir].getOpposite().ordinal()), moves);
+        board.movePlayer(DIRECTIONS[pushDir]);
+        moves.append(DIRECTIONS[pushDir].getKey());
+    }
+
+    /**
+     * Walks the player to the target square along a shortest path which does not push any crate.
+     *
+     * @param board  The board to move on
+     * @param target The square to walk to, which must be in the player region
+     * @param moves  The moves so far
+     */
+    static void appendWalk(Board board, int target, StringBuilder moves) {
+        int size = board.getRows() * board.getCols();
+        //the ordinal of the direction each square was first reached in, plus 1
+        byte[] reachedBy = new byte[size];
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        int start = board.getPlayer();
+        queue[tail++] = start;
+
+        while (head < tail && reachedBy[target] == 0 && target != start) {
+            int p = queue[head++];
+            for (int dir = 0; dir < DIRECTIONS.length; dir++) {
+                int q = board.neighbour(p, dir);
+                if (q == -1 || q == start || reachedBy[q] != 0 || board.isWall(q) || board.hasCrate(q))
+                    continue;
+                reachedBy[q] = (byte) (dir + 1);
+                queue[tail++] = q;
+            }
+        }
+
+        StringBuilder path = new StringBuilder();
+        for (int p = target; p != start; ) {
+            Map.Direction d = DIRECTIONS[reachedBy[p] - 1];
+            path.append(d.getKey());
+            p = board.neighbour(p, d.getOpposite().ordinal());
+        }
+        moves.append(path.reverse());
+        board.setPlayer(target);
+    }
+}
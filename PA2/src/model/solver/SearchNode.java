@@ -0,0 +1,29 @@
+package model.solver;
+
+import model.Map.Board;
+
+/**
+ * A state reached by a search, together with the push which led to it. The pushes inside a macro push are nodes
+ * without a state (and a hash of 0), which are never expanded but keep the chain of pushes complete.
+ */
+class SearchNode {
+    final Board.Snapshot state;
+    final long hash;
+    final SearchNode parent;
+    //the square the pushed crate was on before the push, and the ordinal of the push direction
+    final int pushFrom;
+    final int pushDir;
+    //the number of pushes from the start, and that plus the lower bound of the pushes left
+    final int g;
+    final int f;
+
+    SearchNode(Board.Snapshot state, long hash, SearchNode parent, int pushFrom, int pushDir, int g, int f) {
+        this.state = state;
+        this.hash = hash;
+        this.parent = parent;
+        this.pushFrom = pushFrom;
+        this.pushDir = pushDir;
+        this.g = g;
+        this.f = f;
+    }
+}
@@ -0,0 +1,35 @@
+package model.solver;
+
+/**
+ * A solution found by a solver, in the w/a/s/d move language of {@link model.GameLevel#makeMove(char)}.
+ */
+public class Solution {
+    private final String moves;
+    private final int numPushes;
+
+    /**
+     * @param moves     The moves, one char per step
+     * @param numPushes How many of the moves push a crate
+     */
+    Solution(String moves, int numPushes) {
+        this.moves = moves;
+        this.numPushes = numPushes;
+    }
+
+    public String getMoves() {
+        return moves;
+    }
+
+    public int getNumMoves() {
+        return moves.length();
+    }
+
+    public int getNumPushes() {
+        return numPushes;
+    }
+
+    @Override
+    public String toString() {
+        return moves;
+    }
+}
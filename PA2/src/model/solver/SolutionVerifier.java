@@ -0,0 +1,227 @@
+package model.solver;
+
+import model.Exceptions.InvalidMapException;
+import model.Map.Board;
+import model.Map.Map;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Replays move strings against the initial state of a level without any JavaFX properties or {@link Map} cells: the
+ * moves are applied to a scratch {@link Board} which is restored from a snapshot before every replay, so verifying a
+ * solution allocates nothing but its result.
+ * <p>
+ * Two move languages are understood:
+ * <ul>
+ * <li>{@link Format#WASD}: the keys of {@link model.GameLevel#makeMove(char)}, in either case.</li>
+ * <li>{@link Format#LURD}: the usual Sokoban notation, where lower case letters are walks and upper case letters are
+ * pushes. A letter of the wrong case makes the solution invalid.</li>
+ * </ul>
+ * Whitespace is skipped in both. A verifier is not thread-safe, but {@link #verifyAll(List, Format, ForkJoinPool)}
+ * spreads a batch over a pool, with a board per task.
+ */
+public class SolutionVerifier {
+    private static final Map.Direction[] DIRECTIONS = Map.Direction.values();
+    //a char's entry in the tables: 0 if it is not a move, else the direction ordinal + 1, plus PUSH for LURD pushes
+    private static final byte PUSH = 8;
+    private static final byte SKIP = 16;
+    private static final int DIRECTION_MASK = 7;
+    //below this many solutions a task verifies them itself rather than splitting further
+    private static final int BATCH_THRESHOLD = 64;
+
+    /**
+     * The move languages understood.
+     */
+    public enum Format {
+        WASD, LURD;
+
+        private final byte[] table = new byte[128];
+    }
+
+    static {
+        for (Map.Direction d : DIRECTIONS) {
+            byte entry = (byte) (d.ordinal() + 1);
+            Format.WASD.table[d.getKey()] = entry;
+            Format.WASD.table[Character.toUpperCase(d.getKey())] = entry;
+        }
+        String lurd = "udlr";
+        for (Map.Direction d : DIRECTIONS) {
+            char c = lurd.charAt(d.ordinal());
+            Format.LURD.table[c] = (byte) (d.ordinal() + 1);
+            Format.LURD.table[Character.toUpperCase(c)] = (byte) (d.ordinal() + 1 + PUSH);
+        }
+        for (Format format : Format.values()) {
+            for (char c : new char[]{' ', '\t', '\n', '\r'})
+                format.table[c] = SKIP;
+        }
+    }
+
+    private final Board.Snapshot initialState;
+    private final Board board;
+
+    /**
+     * @param rep The 2d char array read from the map text file
+     * @throws InvalidMapException When the map is invalid
+     */
+    public SolutionVerifier(char[][] rep) throws InvalidMapException {
+        board = new Board();
+        //replaying moves needs no tunnels, goal rooms or push distances
+        board.initialize(rep.length, rep[0].length, rep, false);
+        initialState = board.snapshot();
+    }
+
+    /**
+     * @param start The board whose current state solutions start from. It is copied, not modified.
+     */
+    public SolutionVerifier(Board start) {
+        this(start.copy(), start.snapshot());
+    }
+
+    private SolutionVerifier(Board board, Board.Snapshot initialState) {
+        this.board = board;
+        this.initialState = initialState;
+    }
+
+    /**
+     * @param moves  The moves to replay from the initial state
+     * @param format The move language of the moves
+     * @return Whether every move was legal and the level ended up solved, with the moves and pushes made
+     */
+    public Result verify(CharSequence moves, Format format) {
+        board.restore(initialState);
+        byte[] table = format.table;
+        int numMoves = 0;
+        int numPushes = 0;
+        for (int i = 0; i < moves.length(); i++) {
+            char c = moves.charAt(i);
+            int entry = c < table.length ? table[c] : 0;
+            if (entry == SKIP)
+                continue;
+            if (entry == 0 || !board.movePlayer(DIRECTIONS[(entry & DIRECTION_MASK) - 1]))
+                return new Result(false, numMoves, numPushes, i);
+
+            boolean pushed = board.getLastPushedCrate() != -1;
+            if (format == Format.LURD && pushed != ((entry & PUSH) != 0))
+                return new Result(false, numMoves, numPushes, i);
+            numMoves++;
+            if (pushed)
+                numPushes++;
+        }
+        return new Result(board.isAllDestsCompleted(), numMoves, numPushes, -1);
+    }
+
+    /**
+     * Verifies the solutions on the common pool, which has one thread per core.
+     *
+     * @param solutions The solutions to verify
+     * @param format    The move language of the solutions
+     * @return The result of every solution, in the same order
+     */
+    public Result[] verifyAll(List<? extends CharSequence> solutions, Format format) {
+        return verifyAll(solutions, format, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param solutions The solutions to verify
+     * @param format    The move language of the solutions
+     * @param pool      The pool to verify them on
+     * @return The result of every solution, in the same order
+     */
+    public Result[] verifyAll(List<? extends CharSequence> solutions, Format format, ForkJoinPool pool) {
+        Result[] results = new Result[solutions.size()];
+        pool.invoke(new VerifyTask(this, solutions, format, results, 0, results.length));
+        return results;
+    }
+
+    /**
+     * The outcome of replaying one move string.
+     */
+    public static class Result {
+        private final boolean valid;
+        private final int numMoves;
+        private final int numPushes;
+        private final int failedAt;
+
+        private Result(boolean valid, int numMoves, int numPushes, int failedAt) {
+            this.valid = valid;
+            this.numMoves = numMoves;
+            this.numPushes = numPushes;
+            this.failedAt = failedAt;
+        }
+
+        /**
+         * @return Whether every move was legal and the level ended up solved
+         */
+        public boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * @return The number of moves made, up to the first illegal one
+         */
+        public int getNumMoves() {
+            return numMoves;
+        }
+
+        /**
+         * @return The number of those moves which pushed a crate
+         */
+        public int getNumPushes() {
+            return numPushes;
+        }
+
+        /**
+         * @return The index of the first char which is not a legal move, or -1 if every move was legal
+         */
+        public int getFailedAt() {
+            return failedAt;
+        }
+
+        @Override
+        public String toString() {
+            return (valid ? "valid" : "invalid") + ", " + numMoves + " moves, " + numPushes + " pushes"
+                    + (failedAt == -1 ? "" : ", illegal move at " + failedAt);
+        }
+    }
+
+    /**
+     * Verifies a range of a batch, splitting it in halves until it is small enough. Every leaf replays on a verifier
+     * of its own.
+     */
+    private static class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SolutionVerifier level;
+        private final List<? extends CharSequence> solutions;
+        private final Format format;
+        private final Result[] results;
+        private final int from;
+        private final int to;
+
+        VerifyTask(SolutionVerifier level, List<? extends CharSequence> solutions, Format format, Result[] results,
+                   int from, int to) {
+            this.level = level;
+            this.solutions = solutions;
+            this.format = format;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new VerifyTask(level, solutions, format, results, from, mid),
+                        new VerifyTask(level, solutions, format, results, mid, to));
+                return;
+            }
+
+            SolutionVerifier verifier = new SolutionVerifier(level.board.copy(), level.initialState);
+            for (int i = from; i < to; i++)
+                results[i] = verifier.verify(solutions.get(i), format);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package model.solver;
+
+import model.Exceptions.InvalidMapException;
+import model.Map.Board;
+import model.Map.Map;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Finds push-optimal solutions with A* search. Every search state is the board right after a push, with the player
+ * anywhere in the region it can walk to, so walking around never creates new states. Pushes onto dead squares and
+ * pushes which deadlock the crates around them, as far as freeze detection and {@link model.Map.PatternSearch} can
+ * tell, are never expanded, and states already reached with as few pushes are skipped through a transposition table.
+ * <p>
+ * Only levels with as many crates as destinations are supported, which is all the level editor can save.
+ * <p>
+ * {@link OffHeapSolver} runs the same search without keeping it on the heap.
+ * <p>
+ * A search gives up when its thread is interrupted, so it can be cancelled through {@link java.util.concurrent.Future}.
+ */
+public class Solver {
+    public static final int DEFAULT_MAX_STATES = 4_000_000;
+
+    private final int maxStates;
+    private int numStates;
+    private boolean givenUp;
+
+    public Solver() {
+        this(DEFAULT_MAX_STATES);
+    }
+
+    /**
+     * @param maxStates The number of distinct states after which the search gives up
+     */
+    public Solver(int maxStates) {
+        this.maxStates = maxStates;
+    }
+
+    /**
+     * @return The number of distinct states reached by the last search
+     */
+    public int getNumStates() {
+        return numStates;
+    }
+
+    /**
+     * @return Whether the last search stopped before it could tell whether there is a solution, as it reached its
+     * state limit or was interrupted. A null solution only proves there is none when this is false.
+     */
+    public boolean hasGivenUp() {
+        return givenUp;
+    }
+
+    /**
+     * @param rep The 2d char array read from the map text file
+     * @return The solution, or null if there is none within the state limit
+     * @throws InvalidMapException When the map is invalid
+     */
+    public Solution solve(char[][] rep) throws InvalidMapException {
+        Board board = new Board();
+        board.initialize(rep.length, rep[0].length, rep);
+        return solve(board);
+    }
+
+    /**
+     * @param map The map to solve from its current state. The map itself is not modified.
+     * @return The solution, or null if there is none within the state limit
+     */
+    public Solution solve(Map map) {
+        return solve(map.getBoard());
+    }
+
+    /**
+     * @param start The board to solve from its current state. The board itself is not modified.
+     * @return The solution, or null if there is none within the state limit, or the thread was interrupted
+     */
+    public Solution solve(Board start) {
+        numStates = 0;
+        givenUp = true;
+        if (start.getNumCrates() != start.getNumDests())
+            return null;
+
+        Expander expander = new Expander(start);
+        StateTable table = new TranspositionTable(1 << 16);
+        //lowest f first; on ties, the deepest node, as it is probably closest to the goal
+        PriorityQueue<SearchNode> open = new PriorityQueue<>(
+                Comparator.<SearchNode>comparingInt(n -> n.f).thenComparingInt(n -> -n.g));
+        ArrayList<SearchNode> children = new ArrayList<>();
+
+        SearchNode root = expander.root();
+        table.offer(root.hash, 0);
+        open.add(root);
+
+        while (!open.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            SearchNode node = open.poll();
+            if (Expander.isStale(node, table))
+                continue;
+            if (expander.isSolved(node)) {
+                numStates = table.size();
+                givenUp = false;
+                return PathFinder.toSolution(start, node);
+            }
+
+            children.clear();
+            expander.expand(node, table, children);
+            open.addAll(children);
+            if (table.size() > maxStates || table.isFull())
+                break;
+        }
+        numStates = table.size();
+        givenUp = !open.isEmpty();
+        return null;
+    }
+}
@@ -0,0 +1,61 @@
+package model.solver;
+
+import model.Exceptions.InvalidMapException;
+import model.GameLevel;
+import model.Map.Board;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures how the {@link ParallelSolver} scales: the states it reaches per second on pools of 1 up to N threads,
+ * against the single-threaded {@link Solver}. Run with N followed by the map files to solve; N defaults to the number
+ * of cores if it is left out.
+ */
+class SolverScaling {
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws InvalidMapException {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int first = 0;
+        if (args.length > 0 && args[0].matches("\\d+")) {
+            maxThreads = Integer.parseInt(args[0]);
+            first = 1;
+        }
+        for (int i = first; i < args.length; i++) {
+            GameLevel level = new GameLevel();
+            level.loadMap(args[i]);
+            Board board = level.getMap().getBoard();
+
+            Solver solver = new Solver();
+            long start = 0;
+            long states = 0;
+            for (int run = -WARMUP_RUNS; run < RUNS; run++) {
+                if (run == 0)
+                    start = System.nanoTime();
+                solver.solve(board);
+                states += run >= 0 ? solver.getNumStates() : 0;
+            }
+            System.out.println(args[i] + ": Solver " + rate(states, System.nanoTime() - start));
+
+            for (int threads = 1; threads <= maxThreads; threads++) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                ParallelSolver parallel = new ParallelSolver(pool, Solver.DEFAULT_MAX_STATES);
+                states = 0;
+                for (int run = -WARMUP_RUNS; run < RUNS; run++) {
+                    if (run == 0)
+                        start = System.nanoTime();
+                    parallel.solve(board);
+                    states += run >= 0 ? parallel.getNumStates() : 0;
+                }
+                System.out.println(args[i] + ": ParallelSolver on " + threads + " threads "
+                        + rate(states, System.nanoTime() - start));
+                pool.shutdown();
+            }
+        }
+    }
+
+    private static String rate(long states, long nanos) {
+        return String.format("%.0f states/s (%d states in %.1f ms)", states * 1e9 / nanos, states, nanos / 1e6);
+    }
+}
@@ -0,0 +1,34 @@
+package model.solver;
+
+/**
+ * Remembers the lowest number of pushes every state reached by a search was reached with, keyed by the 64 bit
+ * state hash.
+ */
+interface StateTable {
+    /**
+     * @param key The state hash
+     * @return The lowest number of pushes stored for the state, or -1 if it has not been stored
+     */
+    int get(long key);
+
+    /**
+     * Stores the number of pushes if the state is new, or if it was only reached with more pushes before.
+     *
+     * @param key The state hash
+     * @param g   The number of pushes the state was reached with
+     * @return Whether the value was stored, i.e. whether the state should be expanded
+     */
+    boolean offer(long key, int g);
+
+    /**
+     * @return The number of distinct states stored
+     */
+    int size();
+
+    /**
+     * @return Whether the table ran out of room and refused new states, so the search is no longer complete
+     */
+    default boolean isFull() {
+        return false;
+    }
+}
@@ -0,0 +1,86 @@
+package model.solver;
+
+/**
+ * An open addressing hash table from 64 bit state hashes to the lowest number of pushes a state was reached with.
+ * Avoids boxing every key and value like a {@code HashMap<Long, Integer>} would. Not thread-safe.
+ */
+class TranspositionTable implements StateTable {
+    private static final float MAX_LOAD = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    /**
+     * @param expectedSize The number of states expected to be stored, rounded up to a power of 2
+     */
+    TranspositionTable(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / MAX_LOAD)) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int get(long key) {
+        long k = nonZero(key);
+        int mask = keys.length - 1;
+        for (int slot = spread(k) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == k)
+                return values[slot];
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean offer(long key, int g) {
+        long k = nonZero(key);
+        int mask = keys.length - 1;
+        int slot = spread(k) & mask;
+        while (keys[slot] != 0 && keys[slot] != k)
+            slot = (slot + 1) & mask;
+
+        if (keys[slot] == k) {
+            if (values[slot] <= g)
+                return false;
+            values[slot] = g;
+            return true;
+        }
+
+        keys[slot] = k;
+        values[slot] = g;
+        if (++size > keys.length * MAX_LOAD)
+            grow();
+        return true;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int slot = spread(oldKeys[i]) & mask;
+            while (keys[slot] != 0)
+                slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    //0 marks an empty slot, so it cannot be used as a key
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+
+    private static int spread(long key) {
+        return (int) (key ^ (key >>> 32));
+    }
+}
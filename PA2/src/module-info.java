@@ -1,5 +1,6 @@
 module PA2 {
         requires javafx.controls;
         requires javafx.media;
+        requires jdk.management;
         exports main;
 }
\ No newline at end of file
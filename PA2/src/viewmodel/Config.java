@@ -10,6 +10,11 @@ public class Config {
     public static final int LIST_CELL_HEIGHT = 30;
 
     public static final int LEVEL_EDITOR_TILE_SIZE = 32;
+    //the largest part of a map shown while playing, in pixels; bigger maps scroll
+    public static final int VIEWPORT_WIDTH = 704;
+    public static final int VIEWPORT_HEIGHT = 384;
+    //whether the map being played is drawn by copying tile pixels into a single image, rather than on a canvas
+    public static final boolean BLIT_TILES = true;
     public static final String CSS_STYLES = Config.class.getResource("/assets/css/styles.css").toString();
 
     public static String getAboutText() {
@@ -17,7 +22,11 @@ public class Config {
                 "w: up\n" +
                 "a: left\n" +
                 "s: down\n" +
-                "d: right\n\n" +
+                "d: right\n" +
+                "click: walk to a square, or select a crate and push it to the next square clicked\n" +
+                "arrow keys: scroll\n" +
+                "+/-: zoom in/out\n" +
+                "F3: show input latency\n\n" +
                 "Instructions:\n" +
                 "The objective of Sokoban is to push the all of the crates onto the destination tiles. This is done by moving the player next to a crate and pushing it.";
     }
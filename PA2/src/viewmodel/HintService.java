@@ -0,0 +1,143 @@
+package viewmodel;
+
+import javafx.application.Platform;
+import model.Map.Board;
+import model.Map.Map;
+import model.solver.Solution;
+import model.solver.Solver;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Finds the best next push in the background, so that the JavaFX thread never waits for a solver. Only the latest
+ * request matters: a new request or {@link #cancel()} interrupts the search still running, and its answer is dropped
+ * even if it was already on its way.
+ */
+public class HintService {
+    //the search shares the heap of the game, so it gives up long before the solver's default limit would
+    private static final int MAX_STATES = 200_000;
+
+    private static final HintService instance = new HintService();
+
+    //a single daemon thread, so that the application exits cleanly and searches never run side by side
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "hint");
+        t.setDaemon(true);
+        return t;
+    });
+    //only accessed from the JavaFX thread
+    private Future<?> pending;
+    private long generation;
+
+    private HintService() {
+    }
+
+    public static HintService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Must be called from the JavaFX thread.
+     *
+     * @param map      The map to find the next push for, from its current state. The map itself is not used after
+     *                 this call returns.
+     * @param onHint   Called on the JavaFX thread with the hint, or with null if the level cannot be solved from here
+     * @param onGiveUp Called on the JavaFX thread instead if the search reached its state limit before finding out
+     */
+    public void requestHint(Map map, Consumer<Hint> onHint, Runnable onGiveUp) {
+        cancel();
+        long requested = generation;
+        Board board = map.getBoard().copy();
+        pending = executor.submit(() -> {
+            Solver solver = new Solver(MAX_STATES);
+            Solution solution = solver.solve(board);
+            if (Thread.currentThread().isInterrupted())
+                return;
+            boolean givenUp = solver.hasGivenUp();
+            Hint hint = solution == null ? null : Hint.firstPush(board, solution);
+            Platform.runLater(() -> {
+                if (requested != generation)
+                    return;
+                if (givenUp)
+                    onGiveUp.run();
+                else
+                    onHint.accept(hint);
+            });
+        });
+    }
+
+    /**
+     * Stops the running search, if any. Must be called from the JavaFX thread.
+     */
+    public void cancel() {
+        generation++;
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+    }
+
+    /**
+     * The next push of a solution: the moves walking the player to the crate, followed by the push.
+     */
+    public static class Hint {
+        private final String moves;
+        private final int crateR;
+        private final int crateC;
+        private final Map.Direction direction;
+
+        private Hint(String moves, int crateR, int crateC, Map.Direction direction) {
+            this.moves = moves;
+            this.crateR = crateR;
+            this.crateC = crateC;
+            this.direction = direction;
+        }
+
+        /**
+         * @param board    The board the solution starts from, which is moved along the solution up to its first push
+         * @param solution The solution
+         * @return The first push of the solution
+         */
+        private static Hint firstPush(Board board, Solution solution) {
+            String moves = solution.getMoves();
+            for (int i = 0; i < moves.length(); i++) {
+                Map.Direction d = Map.Direction.fromKey(moves.charAt(i));
+                int player = board.getPlayer();
+                board.movePlayer(d);
+                if (board.getLastPushedCrate() != -1) {
+                    int crate = board.neighbour(player, d.ordinal());
+                    return new Hint(moves.substring(0, i + 1), crate / board.getCols(), crate % board.getCols(), d);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return The moves up to and including the push, in the w/a/s/d move language
+         */
+        public String getMoves() {
+            return moves;
+        }
+
+        /**
+         * @return The row of the crate to push, before the push
+         */
+        public int getCrateR() {
+            return crateR;
+        }
+
+        /**
+         * @return The column of the crate to push, before the push
+         */
+        public int getCrateC() {
+            return crateC;
+        }
+
+        public Map.Direction getDirection() {
+            return direction;
+        }
+    }
+}
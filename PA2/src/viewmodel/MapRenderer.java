@@ -4,12 +4,21 @@ import javafx.scene.canvas.Canvas;
 
 import javafx.scene.canvas.GraphicsContext;
 import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import model.Map.Board;
 import model.Map.Cell;
+import model.Map.Map;
 import model.Map.Occupant.Player;
 import model.Map.Occupiable.DestTile;
 import model.Map.Occupiable.Occupiable;
 
 import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 
 import static viewmodel.Config.LEVEL_EDITOR_TILE_SIZE;
 
@@ -27,6 +36,11 @@ public class MapRenderer {
     private static Image dest = null;
     private static Image tile = null;
 
+    //cells this small are filled with the average colour of their image, as the images cannot be made out anyway
+    private static final int SOLID_TILE_SIZE = 2;
+    //the images above scaled to every zoom level of a viewport
+    private static final IdentityHashMap<Image, Tile> tiles = new IdentityHashMap<>();
+
     static {
         try {
             wall = new Image(MapRenderer.class.getResource("/assets/images/wall.png").toURI().toString());
@@ -36,6 +50,8 @@ public class MapRenderer {
             playerOnDest = new Image(MapRenderer.class.getResource("/assets/images/playerOnDest.png").toURI().toString());
             dest = new Image(MapRenderer.class.getResource("/assets/images/dest.png").toURI().toString());
             tile = new Image(MapRenderer.class.getResource("/assets/images/tile.png").toURI().toString());
+            for (Image img : new Image[]{wall, crateOnTile, crateOnDest, playerOnTile, playerOnDest, dest, tile})
+                tiles.put(img, new Tile(img));
         } catch (URISyntaxException e) {
             e.printStackTrace();
         }
@@ -96,33 +112,260 @@ public class MapRenderer {
 
         canvas.setWidth(cols * SIZE);
 
+        GraphicsContext gc = canvas.getGraphicsContext2D();
         for (int i = 0; i < rows; i++) {
             for (int j = 0; j < cols; j++) {
-                Image img = null;
+                gc.drawImage(imageOf(map[i][j]), j * SIZE, i * SIZE);
+            }
+        }
+    }
 
-                if (map[i][j] instanceof Occupiable) {
-                    Occupiable o = (Occupiable) map[i][j];
+    /**
+     * Render the whole board onto the canvas, like {@link #render(Canvas, Cell[][])}, without needing the cells.
+     *
+     * @param canvas The canvas to be rendered onto
+     * @param board  The board holding the current state of the game
+     */
+    public static void render(Canvas canvas, Board board) {
+        final int SIZE = LEVEL_EDITOR_TILE_SIZE;
+        canvas.setHeight(board.getRows() * SIZE);
+        canvas.setWidth(board.getCols() * SIZE);
 
-                    if (o.getOccupant().isPresent()) {
-                        if (o.getOccupant().get() instanceof Player) {
-                            if (map[i][j] instanceof DestTile) img = playerOnDest;
-                            else img = playerOnTile;
-                        } else {
-                            if (map[i][j] instanceof DestTile) img = crateOnDest;
-                            else img = crateOnTile;
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        for (int i = 0; i < board.getRows(); i++) {
+            for (int j = 0; j < board.getCols(); j++) {
+                gc.drawImage(imageOf(board, board.index(i, j)), j * SIZE, i * SIZE);
+            }
+        }
+    }
 
-                        }
-                    } else {
+    /**
+     * Rasterise the cells in the viewport which never change during a level (walls, tiles and destinations) into an
+     * image, to be shown under the pieces drawn by {@link #renderPieces(Canvas, Map, Viewport)}. Only needs to be done
+     * again when the viewport moves or zooms.
+     *
+     * @param background The image to rasterise into, the size of the viewport
+     * @param board      The board of the map
+     * @param viewport   The cells to rasterise, and their size
+     */
+    public static void renderBackground(WritableImage background, Board board, Viewport viewport) {
+        int size = viewport.getTileSize();
+        int width = viewport.getWidth();
+        int height = viewport.getHeight();
+        int lastRow = viewport.getFirstRow() + viewport.getNumRows();
+        int lastCol = viewport.getFirstCol() + viewport.getNumCols();
 
-                        if (map[i][j] instanceof DestTile) img = dest;
-                        else img = tile;
-                    }
+        if (size > SOLID_TILE_SIZE) {
+            PixelWriter writer = background.getPixelWriter();
+            for (int i = viewport.getFirstRow(); i < lastRow; i++) {
+                for (int j = viewport.getFirstCol(); j < lastCol; j++) {
+                    int x = viewport.getX(j);
+                    int y = viewport.getY(i);
+                    Image img = tiles.get(backgroundOf(board, board.index(i, j))).scaled[levelOf(size)];
+                    writer.setPixels(x, y, Math.min(size, width - x), Math.min(size, height - y),
+                            img.getPixelReader(), 0, 0);
+                }
+            }
+            return;
+        }
+
+        //cells of a pixel or two are filled with the average colour of their tile, all in a single write
+        int[] pixels = new int[width * height];
+        for (int i = viewport.getFirstRow(); i < lastRow; i++) {
+            for (int j = viewport.getFirstCol(); j < lastCol; j++) {
+                int argb = tiles.get(backgroundOf(board, board.index(i, j))).argb;
+                int x = viewport.getX(j);
+                int y = viewport.getY(i);
+                for (int dy = 0; dy < size && y + dy < height; dy++) {
+                    for (int dx = 0; dx < size && x + dx < width; dx++)
+                        pixels[(y + dy) * width + x + dx] = argb;
+                }
+            }
+        }
+        background.getPixelWriter().setPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0,
+                width);
+    }
+
+    /**
+     * Render the crates and the player in the viewport onto a transparent canvas laid over the background of the map,
+     * so the cost depends on the number of pieces, not on the size of the map. The canvas is sized to the viewport.
+     *
+     * @param canvas   The canvas to be rendered onto
+     * @param map      The map holding the current state of the game
+     * @param viewport The cells to render, and their size
+     */
+    public static void renderPieces(Canvas canvas, Map map, Viewport viewport) {
+        Board board = map.getBoard();
+        canvas.setWidth(viewport.getWidth());
+        canvas.setHeight(viewport.getHeight());
+
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+        for (int id = 0; id < board.getNumCrates(); id++)
+            renderPiece(gc, board, board.getCrate(id), viewport);
+        renderPiece(gc, board, board.getPlayer(), viewport);
+        map.clearDirtyCells();
+    }
+
+    /**
+     * Render the pieces of the cells which changed since the map was last drawn, on a canvas holding the previous
+     * drawing of {@link #renderPieces(Canvas, Map, Viewport)} for the same map and viewport. A move changes at most
+     * three cells, so this costs the same on maps of any size. Falls back to rendering all the pieces if the map was
+     * never drawn, or the canvas does not fit the viewport.
+     *
+     * @param canvas   The canvas to be rendered onto
+     * @param map      The map holding the current state of the game
+     * @param viewport The cells to render, and their size
+     */
+    public static void renderChanges(Canvas canvas, Map map, Viewport viewport) {
+        if (map.isAllDirty() || canvas.getHeight() != viewport.getHeight() || canvas.getWidth() != viewport.getWidth()) {
+            renderPieces(canvas, map, viewport);
+            return;
+        }
+
+        Board board = map.getBoard();
+        int cols = board.getCols();
+        int size = viewport.getTileSize();
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        for (int k = 0; k < map.getNumDirtyCells(); k++) {
+            int square = map.getDirtyCell(k);
+            int i = square / cols;
+            int j = square % cols;
+            if (!viewport.isVisible(i, j))
+                continue;
+            gc.clearRect(viewport.getX(j), viewport.getY(i), size, size);
+            if (board.hasCrate(square) || board.getPlayer() == square)
+                renderPiece(gc, board, square, viewport);
+        }
+        map.clearDirtyCells();
+    }
+
+    private static void renderPiece(GraphicsContext gc, Board board, int square, Viewport viewport) {
+        int r = square / board.getCols();
+        int c = square % board.getCols();
+        if (!viewport.isVisible(r, c))
+            return;
+        int size = viewport.getTileSize();
+        Tile t = tiles.get(imageOf(board, square));
+        if (size > SOLID_TILE_SIZE) {
+            gc.drawImage(t.scaled[levelOf(size)], viewport.getX(c), viewport.getY(r));
+        } else {
+            gc.setFill(t.color);
+            gc.fillRect(viewport.getX(c), viewport.getY(r), size, size);
+        }
+    }
+
+    /**
+     * @param board  The board
+     * @param square The square
+     * @param size   The size of the cells, a power of 2 up to {@link Config#LEVEL_EDITOR_TILE_SIZE}
+     * @return The pixels of the image of the square at the size, row by row in the premultiplied ARGB format, as
+     * drawn by {@link #renderBackground(WritableImage, Board, Viewport)} and {@link #renderPieces(Canvas, Map,
+     * Viewport)}. The array is shared, and must not be modified.
+     */
+    static int[] pixelsOf(Board board, int square, int size) {
+        return tiles.get(imageOf(board, square)).pixels[levelOf(size)];
+    }
+
+    /**
+     * @return The image of the square without its occupant
+     */
+    private static Image backgroundOf(Board board, int square) {
+        return board.isWall(square) ? wall : board.isDest(square) ? dest : tile;
+    }
+
+    /**
+     * @return The image of the square with its occupant, if any
+     */
+    private static Image imageOf(Board board, int square) {
+        if (board.isWall(square))
+            return wall;
+        boolean onDest = board.isDest(square);
+        if (board.getPlayer() == square)
+            return onDest ? playerOnDest : playerOnTile;
+        if (board.hasCrate(square))
+            return onDest ? crateOnDest : crateOnTile;
+        return onDest ? dest : tile;
+    }
+
+    /**
+     * @param size The size of the cells, a power of 2 up to {@link Config#LEVEL_EDITOR_TILE_SIZE}
+     * @return The index of the tile images scaled to the size
+     */
+    private static int levelOf(int size) {
+        return Integer.numberOfTrailingZeros(LEVEL_EDITOR_TILE_SIZE / size);
+    }
+
+    /**
+     * An image scaled down to every zoom level, by {@link #levelOf(int)}, its pixels at every level and its average
+     * colour. Scaling once avoids resampling the images on every draw.
+     */
+    private static class Tile {
+        private final Image[] scaled;
+        //the pixels drawn for a cell at each level, which are the average colour for the levels of solid cells
+        private final int[][] pixels;
+        private final int argb;
+        private final Color color;
+
+        private Tile(Image img) {
+            scaled = new Image[levelOf(1) + 1];
+            scaled[0] = img;
+            for (int level = 1; level < scaled.length; level++)
+                scaled[level] = halve(scaled[level - 1]);
+            argb = scaled[scaled.length - 1].getPixelReader().getArgb(0, 0);
+            color = scaled[scaled.length - 1].getPixelReader().getColor(0, 0);
+
+            pixels = new int[scaled.length][];
+            for (int level = 0; level < scaled.length; level++) {
+                int size = (int) scaled[level].getWidth();
+                pixels[level] = new int[size * size];
+                if (size > SOLID_TILE_SIZE) {
+                    scaled[level].getPixelReader().getPixels(0, 0, size, size, PixelFormat.getIntArgbPreInstance(),
+                            pixels[level], 0, size);
                 } else {
-                    img = wall;
+                    Arrays.fill(pixels[level], argb);
                 }
+            }
+        }
 
-                canvas.getGraphicsContext2D().drawImage(img,j * SIZE, i * SIZE);
+        /**
+         * @return The image at half the size, every pixel the average of 2x2 pixels
+         */
+        private static Image halve(Image img) {
+            int size = (int) img.getWidth() / 2;
+            PixelReader reader = img.getPixelReader();
+            WritableImage half = new WritableImage(size, size);
+            PixelWriter writer = half.getPixelWriter();
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    int a = 0;
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    for (int k = 0; k < 4; k++) {
+                        int argb = reader.getArgb(2 * x + k % 2, 2 * y + k / 2);
+                        a += argb >>> 24;
+                        r += (argb >> 16) & 0xff;
+                        g += (argb >> 8) & 0xff;
+                        b += argb & 0xff;
+                    }
+                    writer.setArgb(x, y, (a / 4) << 24 | (r / 4) << 16 | (g / 4) << 8 | b / 4);
+                }
             }
+            return half;
+        }
+    }
+
+    private static Image imageOf(Cell cell) {
+        if (!(cell instanceof Occupiable))
+            return wall;
+
+        Occupiable o = (Occupiable) cell;
+        if (o.getOccupant().isPresent()) {
+            if (o.getOccupant().get() instanceof Player)
+                return cell instanceof DestTile ? playerOnDest : playerOnTile;
+            return cell instanceof DestTile ? crateOnDest : crateOnTile;
         }
+        return cell instanceof DestTile ? dest : tile;
     }
 }
@@ -0,0 +1,157 @@
+package viewmodel;
+
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import model.Map.Board;
+import model.Map.Map;
+
+import java.nio.IntBuffer;
+
+/**
+ * Renders the part of a map in a {@link Viewport} by copying the pixels of its tiles into an int array, which is
+ * written into the image of a view in one go, instead of issuing a draw command on a canvas for every cell. The tile
+ * images are opaque and cover their cell, so every cell is a plain copy of the image of its contents, and nothing has
+ * to be blended or cleared first.
+ * <p>
+ * After the first frame only the cells which changed are copied again, and only the rectangle around them is written
+ * into the image.
+ */
+public class PixelMapRenderer {
+    private static final PixelFormat<IntBuffer> FORMAT = PixelFormat.getIntArgbPreInstance();
+
+    private final ImageView view;
+    //the pixels of the image, row by row, in the premultiplied ARGB format
+    private int[] frame = new int[0];
+    private int width;
+    private int height;
+
+    /**
+     * @param view The view to render into. Its image is replaced whenever the size of the viewport changes.
+     */
+    public PixelMapRenderer(ImageView view) {
+        this.view = view;
+    }
+
+    /**
+     * Render every cell in the viewport.
+     *
+     * @param map      The map holding the current state of the game
+     * @param viewport The cells to render, and their size
+     */
+    public void renderAll(Map map, Viewport viewport) {
+        resize(viewport.getWidth(), viewport.getHeight());
+        Board board = map.getBoard();
+        int lastRow = viewport.getFirstRow() + viewport.getNumRows();
+        int lastCol = viewport.getFirstCol() + viewport.getNumCols();
+        for (int i = viewport.getFirstRow(); i < lastRow; i++) {
+            for (int j = viewport.getFirstCol(); j < lastCol; j++)
+                copyCell(board, board.index(i, j), viewport.getX(j), viewport.getY(i), viewport.getTileSize());
+        }
+        write(0, 0, width, height);
+        map.clearDirtyCells();
+    }
+
+    /**
+     * Render the cells which changed since the map was last drawn, over the previous frame of {@link #renderAll(Map,
+     * Viewport)} for the same map and viewport. Falls back to rendering every cell if the map was never drawn, or the
+     * frame does not fit the viewport.
+     *
+     * @param map      The map holding the current state of the game
+     * @param viewport The cells to render, and their size
+     */
+    public void renderChanges(Map map, Viewport viewport) {
+        if (map.isAllDirty() || width != viewport.getWidth() || height != viewport.getHeight()) {
+            renderAll(map, viewport);
+            return;
+        }
+
+        Board board = map.getBoard();
+        int cols = board.getCols();
+        int size = viewport.getTileSize();
+        //the rectangle around the cells copied, to be written into the image
+        int left = width;
+        int top = height;
+        int right = 0;
+        int bottom = 0;
+        for (int k = 0; k < map.getNumDirtyCells(); k++) {
+            int i = map.getDirtyCell(k) / cols;
+            int j = map.getDirtyCell(k) % cols;
+            if (!viewport.isVisible(i, j))
+                continue;
+            int x = viewport.getX(j);
+            int y = viewport.getY(i);
+            copyCell(board, map.getDirtyCell(k), x, y, size);
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, Math.min(x + size, width));
+            bottom = Math.max(bottom, Math.min(y + size, height));
+        }
+        if (left < right)
+            write(left, top, right - left, bottom - top);
+        map.clearDirtyCells();
+    }
+
+    /**
+     * Draws an outline along the inside of a cell, if the cell is in view. The outline is erased when the cell is
+     * rendered again.
+     *
+     * @param r         The row coordinate of the cell
+     * @param c         The column coordinate of the cell
+     * @param color     The color of the outline, drawn opaque
+     * @param lineWidth The width of the outline, in pixels
+     * @param viewport  The cells rendered, and their size
+     */
+    public void outline(int r, int c, Color color, int lineWidth, Viewport viewport) {
+        if (!viewport.isVisible(r, c))
+            return;
+        int argb = 0xff000000 | (int) Math.round(color.getRed() * 255) << 16
+                | (int) Math.round(color.getGreen() * 255) << 8 | (int) Math.round(color.getBlue() * 255);
+        int size = viewport.getTileSize();
+        int x = viewport.getX(c);
+        int y = viewport.getY(r);
+        int w = Math.min(size, width - x);
+        int h = Math.min(size, height - y);
+        for (int dy = 0; dy < h; dy++) {
+            int row = (y + dy) * width + x;
+            for (int dx = 0; dx < w; dx++) {
+                if (dx < lineWidth || dy < lineWidth || dx >= size - lineWidth || dy >= size - lineWidth)
+                    frame[row + dx] = argb;
+            }
+        }
+        write(x, y, w, h);
+    }
+
+    /**
+     * Makes the frame the size of the viewport, with a new image for the view if the size changed.
+     */
+    private void resize(int width, int height) {
+        if (view.getImage() != null && width == this.width && height == this.height)
+            return;
+        this.width = width;
+        this.height = height;
+        frame = new int[width * height];
+        view.setImage(new WritableImage(width, height));
+    }
+
+    /**
+     * Copies the pixels of the image of a square into the frame, clipped to its right and bottom edges.
+     */
+    private void copyCell(Board board, int square, int x, int y, int size) {
+        int[] pixels = MapRenderer.pixelsOf(board, square, size);
+        if (size == 1) {
+            //fully zoomed out, a whole screen of cells would otherwise be as many calls copying a pixel each
+            frame[y * width + x] = pixels[0];
+            return;
+        }
+        int w = Math.min(size, width - x);
+        int h = Math.min(size, height - y);
+        for (int dy = 0; dy < h; dy++)
+            System.arraycopy(pixels, dy * size, frame, (y + dy) * width + x, w);
+    }
+
+    private void write(int x, int y, int w, int h) {
+        ((WritableImage) view.getImage()).getPixelWriter().setPixels(x, y, w, h, FORMAT, frame, y * width + x, width);
+    }
+}
@@ -0,0 +1,71 @@
+package viewmodel;
+
+import javafx.application.Platform;
+import model.GameLevel;
+import model.Map.Board;
+import model.Map.Map;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Plans the pushes of a crate to a clicked square in the background, so that the JavaFX thread never waits for the
+ * planner on a large map. As with {@link HintService}, only the latest request matters: a new request or
+ * {@link #cancel()} drops the answer of the previous one.
+ */
+public class PushService {
+    private static final PushService instance = new PushService();
+
+    //a single daemon thread, so that the application exits cleanly and plans never run side by side
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "push-planner");
+        t.setDaemon(true);
+        return t;
+    });
+    //only accessed from the JavaFX thread
+    private long generation;
+
+    private PushService() {
+    }
+
+    public static PushService getInstance() {
+        return instance;
+    }
+
+    /**
+     * Must be called from the JavaFX thread. The moves are only handed over if the crates and the player are still
+     * where they were when requested, as they start from there.
+     *
+     * @param map     The map to plan on, from its current state. It is copied, not modified.
+     * @param crateR  The row coordinate of the crate
+     * @param crateC  The column coordinate of the crate
+     * @param r       The row coordinate of the square to push the crate to
+     * @param c       The column coordinate of the square to push the crate to
+     * @param onMoves Called on the JavaFX thread with the moves, or with null if the crate cannot get there
+     */
+    public void requestPushes(Map map, int crateR, int crateC, int r, int c, Consumer<String> onMoves) {
+        cancel();
+        long requested = generation;
+        Board live = map.getBoard();
+        //the crate version changes whenever a crate moves, even back to where it was, so with the player it tells
+        //whether the state is still the one planned from
+        int crateVersion = live.getCrateVersion();
+        int player = live.getPlayer();
+        Board board = live.copy();
+        executor.execute(() -> {
+            String moves = GameLevel.findPushes(board, crateR, crateC, r, c);
+            Platform.runLater(() -> {
+                if (requested == generation && live.getCrateVersion() == crateVersion && live.getPlayer() == player)
+                    onMoves.accept(moves);
+            });
+        });
+    }
+
+    /**
+     * Drops the answer of the plan still running, if any. Must be called from the JavaFX thread.
+     */
+    public void cancel() {
+        generation++;
+    }
+}
@@ -0,0 +1,147 @@
+package viewmodel;
+
+import javafx.application.Platform;
+import javafx.scene.Group;
+import javafx.scene.Node;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import model.Exceptions.InvalidMapException;
+import model.GameLevel;
+import model.Map.Map;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static viewmodel.Config.VIEWPORT_HEIGHT;
+import static viewmodel.Config.VIEWPORT_WIDTH;
+
+/**
+ * Times a full frame of the map view drawn on a canvas over the rasterised background, against the same frame drawn
+ * by {@link PixelMapRenderer}, on the given map files and on a generated 500x500 map at every zoom level. Both are
+ * snapshotted after every frame, so that the canvas commands are actually rasterised, and their first frames are
+ * compared pixel by pixel.
+ */
+class RenderBenchmark {
+    private static final int WARMUP_FRAMES = 3;
+    private static final int FRAMES = 20;
+    private static final int GENERATED_SIZE = 500;
+
+    public static void main(String[] args) throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        Platform.startup(started::countDown);
+        started.await();
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                for (String filename : args) {
+                    GameLevel level = new GameLevel();
+                    level.loadMap(filename);
+                    System.out.println(filename + " " + time(level.getMap(), 0));
+                }
+                Map generated = generate(GENERATED_SIZE, new Random(3));
+                for (int zoomOuts = 0; ; zoomOuts++) {
+                    System.out.println(GENERATED_SIZE + "x" + GENERATED_SIZE + " " + time(generated, zoomOuts));
+                    if (viewport(generated, zoomOuts).getTileSize() == 1)
+                        break;
+                }
+                done.complete(null);
+            } catch (Throwable t) {
+                done.completeExceptionally(t);
+            }
+        });
+        try {
+            done.get();
+        } finally {
+            Platform.exit();
+        }
+    }
+
+    /**
+     * @return The average time of a frame on either path, at the tile size of the given zoom level
+     */
+    private static String time(Map map, int zoomOuts) {
+        Viewport viewport = viewport(map, zoomOuts);
+        ImageView background = new ImageView();
+        Canvas pieces = new Canvas();
+        Group canvasPath = new Group(background, pieces);
+        ImageView blitView = new ImageView();
+        PixelMapRenderer blitter = new PixelMapRenderer(blitView);
+        Group blitPath = new Group(blitView);
+
+        long canvasTime = 0;
+        long blitTime = 0;
+        boolean same = true;
+        for (int frame = -WARMUP_FRAMES; frame < FRAMES; frame++) {
+            long start = System.nanoTime();
+            WritableImage image = new WritableImage(viewport.getWidth(), viewport.getHeight());
+            background.setImage(image);
+            MapRenderer.renderBackground(image, map.getBoard(), viewport);
+            MapRenderer.renderPieces(pieces, map, viewport);
+            int[] canvasPixels = pixelsOf(canvasPath);
+            long canvasEnd = System.nanoTime();
+            blitter.renderAll(map, viewport);
+            int[] blitPixels = pixelsOf(blitPath);
+            long blitEnd = System.nanoTime();
+
+            if (frame == -WARMUP_FRAMES)
+                same = Arrays.equals(canvasPixels, blitPixels);
+            if (frame >= 0) {
+                canvasTime += canvasEnd - start;
+                blitTime += blitEnd - canvasEnd;
+            }
+        }
+        return String.format("%dpx: canvas %.2f ms, blit %.2f ms%s", viewport.getTileSize(),
+                canvasTime / 1e6 / FRAMES, blitTime / 1e6 / FRAMES, same ? "" : " (pixels differ)");
+    }
+
+    private static Viewport viewport(Map map, int zoomOuts) {
+        Viewport viewport = new Viewport(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+        viewport.setMapSize(map.getBoard().getRows(), map.getBoard().getCols());
+        for (int k = 0; k < zoomOuts; k++)
+            viewport.zoom(false);
+        return viewport;
+    }
+
+    private static int[] pixelsOf(Node node) {
+        WritableImage image = node.snapshot(null, null);
+        int width = (int) image.getWidth();
+        int height = (int) image.getHeight();
+        int[] pixels = new int[width * height];
+        image.getPixelReader().getPixels(0, 0, width, height, PixelFormat.getIntArgbInstance(), pixels, 0, width);
+        return pixels;
+    }
+
+    /**
+     * @return A square map walled in, with a wall on about every tenth square inside, and about one crate and one
+     * destination on every fiftieth
+     */
+    private static Map generate(int size, Random random) throws InvalidMapException {
+        char[][] rep = new char[size][size];
+        int crates = 0;
+        for (int r = 0; r < size; r++) {
+            for (int c = 0; c < size; c++) {
+                rep[r][c] = '.';
+                if (r == size / 2 && c == size / 2) {
+                    rep[r][c] = '@';
+                } else if (r == 0 || c == 0 || r == size - 1 || c == size - 1 || random.nextInt(10) == 0) {
+                    rep[r][c] = '#';
+                } else if (random.nextInt(50) == 0) {
+                    rep[r][c] = 'c';
+                    crates++;
+                } else if (crates > 0 && random.nextInt(50) == 0) {
+                    //destinations trail the crates, so there are never more of them
+                    rep[r][c] = 'C';
+                    crates--;
+                }
+            }
+        }
+        Map map = new Map();
+        map.initialize(size, size, rep);
+        return map;
+    }
+}
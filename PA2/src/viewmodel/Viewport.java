@@ -0,0 +1,191 @@
+package viewmodel;
+
+import static viewmodel.Config.LEVEL_EDITOR_TILE_SIZE;
+
+/**
+ * The window of cells of a map which is shown on screen, and the size the cells are drawn at. Maps bigger than the
+ * window are only drawn in part, so the cost of a frame and the size of the canvases stay bounded whatever the size of
+ * the map.
+ * <p>
+ * Zooming halves or doubles the size of the cells, from {@link Config#LEVEL_EDITOR_TILE_SIZE} down to a single pixel.
+ */
+public class Viewport {
+    private static final int MIN_TILE_SIZE = 1;
+    //how close to the edge of the window the player may get before the window is moved, in cells
+    private static final int FOLLOW_MARGIN = 2;
+
+    private final int maxWidth;
+    private final int maxHeight;
+    private int mapRows;
+    private int mapCols;
+    private int tileSize = LEVEL_EDITOR_TILE_SIZE;
+    //the top-left visible cell
+    private int firstRow;
+    private int firstCol;
+
+    /**
+     * @param maxWidth  The maximum width of the window, in pixels
+     * @param maxHeight The maximum height of the window, in pixels
+     */
+    public Viewport(int maxWidth, int maxHeight) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    /**
+     * Shows another map from its top-left corner, at full size.
+     *
+     * @param rows The number of rows in the map
+     * @param cols The number of columns in the map
+     */
+    public void setMapSize(int rows, int cols) {
+        mapRows = rows;
+        mapCols = cols;
+        tileSize = LEVEL_EDITOR_TILE_SIZE;
+        firstRow = 0;
+        firstCol = 0;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    public int getFirstCol() {
+        return firstCol;
+    }
+
+    /**
+     * @return The number of rows shown, the last one possibly in part
+     */
+    public int getNumRows() {
+        return Math.min(mapRows - firstRow, (maxHeight + tileSize - 1) / tileSize);
+    }
+
+    /**
+     * @return The number of columns shown, the last one possibly in part
+     */
+    public int getNumCols() {
+        return Math.min(mapCols - firstCol, (maxWidth + tileSize - 1) / tileSize);
+    }
+
+    /**
+     * @return The width of the window in pixels, no wider than the map
+     */
+    public int getWidth() {
+        return Math.min(maxWidth, mapCols * tileSize);
+    }
+
+    /**
+     * @return The height of the window in pixels, no higher than the map
+     */
+    public int getHeight() {
+        return Math.min(maxHeight, mapRows * tileSize);
+    }
+
+    /**
+     * @param r The row coordinate
+     * @param c The column coordinate
+     * @return Whether or not any part of the cell is shown
+     */
+    public boolean isVisible(int r, int c) {
+        return r >= firstRow && r < firstRow + getNumRows() && c >= firstCol && c < firstCol + getNumCols();
+    }
+
+    /**
+     * @param c The column coordinate of a cell
+     * @return The x coordinate of the left edge of the cell in the window
+     */
+    public int getX(int c) {
+        return (c - firstCol) * tileSize;
+    }
+
+    /**
+     * @param r The row coordinate of a cell
+     * @return The y coordinate of the top edge of the cell in the window
+     */
+    public int getY(int r) {
+        return (r - firstRow) * tileSize;
+    }
+
+    /**
+     * @param y The y coordinate in the window
+     * @return The row coordinate of the cell shown there, or -1 if there is none
+     */
+    public int getRowAt(double y) {
+        return y < 0 || y >= getHeight() ? -1 : firstRow + (int) (y / tileSize);
+    }
+
+    /**
+     * @param x The x coordinate in the window
+     * @return The column coordinate of the cell shown there, or -1 if there is none
+     */
+    public int getColAt(double x) {
+        return x < 0 || x >= getWidth() ? -1 : firstCol + (int) (x / tileSize);
+    }
+
+    /**
+     * @param dr The number of rows to scroll down by, negative to scroll up
+     * @param dc The number of columns to scroll right by, negative to scroll left
+     * @return Whether the window moved, as it stops at the edges of the map
+     */
+    public boolean scrollBy(int dr, int dc) {
+        return moveTo(firstRow + dr, firstCol + dc);
+    }
+
+    /**
+     * Moves the window so that the cell is centred in it, if the cell is closer to an edge of the window than a few
+     * cells. Does nothing while the cell is well inside the window, so that the player can walk around without the
+     * window moving on every step.
+     *
+     * @param r The row coordinate of the cell to follow
+     * @param c The column coordinate of the cell to follow
+     * @return Whether the window moved
+     */
+    public boolean follow(int r, int c) {
+        int rows = maxHeight / tileSize;
+        int cols = maxWidth / tileSize;
+        int marginR = Math.min(FOLLOW_MARGIN, (rows - 1) / 2);
+        int marginC = Math.min(FOLLOW_MARGIN, (cols - 1) / 2);
+        int row = firstRow;
+        int col = firstCol;
+        if (r < firstRow + marginR || r >= firstRow + rows - marginR)
+            row = r - rows / 2;
+        if (c < firstCol + marginC || c >= firstCol + cols - marginC)
+            col = c - cols / 2;
+        return moveTo(row, col);
+    }
+
+    /**
+     * Doubles or halves the size of the cells, keeping the cell at the centre of the window where it is.
+     *
+     * @param in Whether to zoom in rather than out
+     * @return Whether the size changed, as it stays between a pixel and {@link Config#LEVEL_EDITOR_TILE_SIZE}
+     */
+    public boolean zoom(boolean in) {
+        int size = in ? tileSize * 2 : tileSize / 2;
+        if (size < MIN_TILE_SIZE || size > LEVEL_EDITOR_TILE_SIZE)
+            return false;
+        int centreR = firstRow + getHeight() / 2 / tileSize;
+        int centreC = firstCol + getWidth() / 2 / tileSize;
+        tileSize = size;
+        moveTo(centreR - maxHeight / 2 / size, centreC - maxWidth / 2 / size);
+        return true;
+    }
+
+    /**
+     * @return Whether the window moved, once clamped to the map
+     */
+    private boolean moveTo(int row, int col) {
+        row = Math.max(0, Math.min(row, mapRows - maxHeight / tileSize));
+        col = Math.max(0, Math.min(col, mapCols - maxWidth / tileSize));
+        if (row == firstRow && col == firstCol)
+            return false;
+        firstRow = row;
+        firstCol = col;
+        return true;
+    }
+}
@@ -0,0 +1,151 @@
+package viewmodel.customNodes;
+
+import javafx.scene.Group;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+import model.Map.Map;
+import model.Map.Occupant.Player;
+import viewmodel.MapRenderer;
+import viewmodel.PixelMapRenderer;
+import viewmodel.Viewport;
+
+import static viewmodel.Config.BLIT_TILES;
+
+/**
+ * Displays a map being played in two layers: the walls, tiles and destinations are rasterised into an image, and only
+ * the crates and the player are drawn on a transparent canvas above it, as they move. Both layers only cover the
+ * {@link Viewport}, which follows the player around maps too big to be shown whole, and can be scrolled and zoomed.
+ * <p>
+ * With {@link viewmodel.Config#BLIT_TILES}, the whole view is a single image instead, into which the pixels of the
+ * tiles are copied by a {@link PixelMapRenderer}, and the canvas is left empty.
+ */
+public class MapView extends Group {
+    private static final double OUTLINE_WIDTH = 3;
+
+    private final Viewport viewport;
+    private final ImageView background = new ImageView();
+    private final Canvas pieces = new Canvas();
+    private final PixelMapRenderer blitter = BLIT_TILES ? new PixelMapRenderer(background) : null;
+    //the map the layers were drawn for, and where its player was then
+    private Map map;
+    private int playerR;
+    private int playerC;
+    //whether the viewport moved since the layers were drawn, so that they have to be drawn again
+    private boolean moved;
+
+    /**
+     * @param width  The maximum width of the view, in pixels
+     * @param height The maximum height of the view, in pixels
+     */
+    public MapView(int width, int height) {
+        viewport = new Viewport(width, height);
+        this.getChildren().addAll(background, pieces);
+    }
+
+    /**
+     * Brings the view up to date with the map. Both layers are drawn again when the map is another one than last
+     * time, e.g. after a new level was loaded, when the view was scrolled or zoomed, or when the player moved close to
+     * the edge of the view and it followed. Otherwise only the pieces of the changed cells are redrawn, even if the
+     * player is out of view after scrolling.
+     *
+     * @param map The map holding the current state of the game
+     */
+    public void render(Map map) {
+        Player player = map.getPlayer();
+        boolean playerMoved = player.getR() != playerR || player.getC() != playerC;
+        playerR = player.getR();
+        playerC = player.getC();
+        if (map != this.map) {
+            this.map = map;
+            viewport.setMapSize(map.getBoard().getRows(), map.getBoard().getCols());
+            viewport.follow(playerR, playerC);
+            renderAll();
+        } else if (playerMoved && viewport.follow(playerR, playerC) || moved) {
+            renderAll();
+        } else if (blitter != null) {
+            blitter.renderChanges(map, viewport);
+        } else {
+            MapRenderer.renderChanges(pieces, map, viewport);
+        }
+    }
+
+    /**
+     * Moves the view over the map, without going past its edges. Takes effect at the next {@link #render(Map)}, so
+     * that scrolling many times between two frames only draws once. Does nothing before a map was rendered.
+     *
+     * @param dr The number of rows to scroll down by, negative to scroll up
+     * @param dc The number of columns to scroll right by, negative to scroll left
+     */
+    public void scroll(int dr, int dc) {
+        if (map != null && viewport.scrollBy(dr, dc))
+            moved = true;
+    }
+
+    /**
+     * Doubles or halves the size of the cells. Takes effect at the next {@link #render(Map)}. Does nothing before a
+     * map was rendered.
+     *
+     * @param in Whether to zoom in rather than out
+     */
+    public void zoom(boolean in) {
+        if (map != null && viewport.zoom(in))
+            moved = true;
+    }
+
+    /**
+     * @param y The y coordinate in the view
+     * @return The row coordinate of the cell shown there, or -1 if there is none
+     */
+    public int getRowAt(double y) {
+        return viewport.getRowAt(y);
+    }
+
+    /**
+     * @param x The x coordinate in the view
+     * @return The column coordinate of the cell shown there, or -1 if there is none
+     */
+    public int getColAt(double x) {
+        return viewport.getColAt(x);
+    }
+
+    /**
+     * Draws an outline around a cell, above its piece, if the cell is in view. The outline is erased when the cell is
+     * redrawn, so the cell must be marked dirty (see {@link Map#markDirty(int, int)}) for the outline to go.
+     *
+     * @param r     The row coordinate of the cell
+     * @param c     The column coordinate of the cell
+     * @param color The color of the outline
+     */
+    public void outline(int r, int c, Color color) {
+        if (!viewport.isVisible(r, c))
+            return;
+        int size = viewport.getTileSize();
+        double width = Math.min(OUTLINE_WIDTH, size / 2.0);
+        if (blitter != null) {
+            blitter.outline(r, c, color, (int) Math.ceil(width), viewport);
+            return;
+        }
+        GraphicsContext gc = pieces.getGraphicsContext2D();
+        gc.setStroke(color);
+        gc.setLineWidth(width);
+        gc.strokeRect(viewport.getX(c) + width / 2, viewport.getY(r) + width / 2, size - width, size - width);
+    }
+
+    private void renderAll() {
+        moved = false;
+        if (blitter != null) {
+            blitter.renderAll(map, viewport);
+            return;
+        }
+        WritableImage image = (WritableImage) background.getImage();
+        if (image == null || image.getWidth() != viewport.getWidth() || image.getHeight() != viewport.getHeight()) {
+            image = new WritableImage(viewport.getWidth(), viewport.getHeight());
+            background.setImage(image);
+        }
+        MapRenderer.renderBackground(image, map.getBoard(), viewport);
+        MapRenderer.renderPieces(pieces, map, viewport);
+    }
+}
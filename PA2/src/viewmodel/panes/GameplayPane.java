@@ -1,23 +1,36 @@
 package viewmodel.panes;
 
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
 import javafx.event.EventHandler;
 import javafx.geometry.Pos;
-import javafx.scene.canvas.Canvas;
+import javafx.scene.Group;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
+import javafx.scene.paint.Color;
 import model.Exceptions.InvalidMapException;
+import model.GameLevel;
 import model.LevelManager;
+import model.Map.Board;
+import model.Map.Map;
 import viewmodel.AudioManager;
+import viewmodel.HintService;
 import viewmodel.MapRenderer;
+import viewmodel.PushService;
 import viewmodel.SceneManager;
 import viewmodel.customNodes.GameplayInfoPane;
+import viewmodel.customNodes.MapView;
 
 import java.util.Optional;
 
+import static viewmodel.Config.VIEWPORT_HEIGHT;
+import static viewmodel.Config.VIEWPORT_WIDTH;
+
 /**
  * Represents the gameplay pane in the game
  */
@@ -25,10 +38,34 @@ public class GameplayPane extends BorderPane {
 
     private final GameplayInfoPane info;
     private VBox canvasContainer;
-    private Canvas gamePlayCanvas;
+    private MapView mapView;
     private HBox buttonBar;
+    private Button undoButton;
+    private Button redoButton;
+    private Button hintButton;
+    private Label hintLabel;
+    //whether the hint is kept up to date after every move, until the level ends
+    private boolean hintRequested;
     private Button restartButton;
     private Button quitToMenuButton;
+    //the crate selected to be pushed to the next clicked square, or -1
+    private int selectedCrateR = -1;
+    private int selectedCrateC = -1;
+
+    //applies the queued input and renders, at most once per frame
+    private final AnimationTimer pulse;
+    //the moves keyed since the last frame, applied together at the next one
+    private final StringBuilder pendingMoves = new StringBuilder();
+    private boolean renderRequested;
+    //set once the level is won or deadlocked, until it is restarted or the next level starts, to drop further input
+    private boolean levelEnded;
+    //shows how long input takes to get on screen, toggled with F3
+    private Label latencyLabel;
+    //when the oldest input not yet rendered arrived (System.nanoTime), or 0 if there is none
+    private long inputSince;
+    private long worstLatency;
+    private long worstLatencySince;
+    private int lastBatchSize;
 
     /**
      * Instantiate the member components and connect and style them. Also set the callbacks.
@@ -44,14 +81,25 @@ public class GameplayPane extends BorderPane {
         );
         canvasContainer= new VBox();
         canvasContainer.setSpacing(20);
-        gamePlayCanvas=new Canvas();
+        mapView = new MapView(VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
         buttonBar= new HBox();
+        undoButton = new Button("Undo");
+        redoButton = new Button("Redo");
+        hintButton = new Button("Hint");
+        hintLabel = new Label();
         restartButton= new Button("Restart");
         quitToMenuButton=new Button("Quit to menu");
+        latencyLabel = new Label();
+        pulse = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                onPulse();
+            }
+        };
         connectComponents();
         styleComponents();
         setCallbacks();
-        renderCanvas();
+        requestRender();
 
     }
 
@@ -60,9 +108,10 @@ public class GameplayPane extends BorderPane {
      */
     private void connectComponents() {
         //TODO
-        canvasContainer.getChildren().add(gamePlayCanvas);
+        //the overlay sits over the top-left corner of the map
+        canvasContainer.getChildren().addAll(new Group(mapView, latencyLabel), hintLabel);
 
-        buttonBar.getChildren().addAll(info, restartButton, quitToMenuButton);
+        buttonBar.getChildren().addAll(info, undoButton, redoButton, hintButton, restartButton, quitToMenuButton);
         this.setBottom(buttonBar);
         this.setCenter(canvasContainer);
 
@@ -75,15 +124,25 @@ public class GameplayPane extends BorderPane {
     private void styleComponents() {
         //TODO
         canvasContainer.getStyleClass().addAll("big-vbox", "bottom-menu");
+        undoButton.getStyleClass().add("big-button");
+        redoButton.getStyleClass().add("big-button");
+        hintButton.getStyleClass().add("big-button");
         restartButton.getStyleClass().add("big-button");
         quitToMenuButton.getStyleClass().add("big-button");
         buttonBar.getStyleClass().add("big-hbox");
+        latencyLabel.getStyleClass().add("debug-overlay");
+        latencyLabel.setMouseTransparent(true);
+        latencyLabel.setVisible(false);
     }
 
     /**
-     * Set the event handlers for the 2 buttons.
+     * Set the event handlers for the buttons.
      * <p>
-     * Also listens for key presses (w, a, s, d), which move the character.
+     * Also listens for key presses (w, a, s, d), which move the character, arrow keys, which scroll the view, +/- keys
+     * or the mouse wheel, which zoom it, and F3, which shows the input latency. Moves are queued and made at the next
+     * frame, so that however fast keys repeat, the canvas is rendered once per frame. Clicks on the view are handled
+     * as well. Clicking a square walks the character there along the shortest path around the crates. Clicking a
+     * crate selects it instead, and clicking a square afterwards pushes the selected crate there.
      * <p>
      * Hint: {@link GameplayPane#setOnKeyPressed(EventHandler)}  is needed.
      * You will need to make the move, rerender the canvas, play the sound (if the move was made), and detect
@@ -94,30 +153,283 @@ public class GameplayPane extends BorderPane {
     private void setCallbacks() {
         //TODO
 
+        undoButton.setOnAction(e -> {
+            if (!levelEnded && LevelManager.getInstance().getGameLevel().undo()) {
+                noteInput();
+                selectCrate(-1, -1);
+                requestRender();
+                updateHint();
+            }
+        });
+        redoButton.setOnAction(e -> {
+            if (!levelEnded && LevelManager.getInstance().getGameLevel().redo()) {
+                noteInput();
+                onMoveMade();
+            }
+        });
+        hintButton.setOnAction(e -> requestHint());
         restartButton.setOnAction(e -> doRestartAction());
         quitToMenuButton.setOnAction(e -> doQuitToMenuAction());
         //check
         this.setOnKeyPressed(e -> {
+            switch (e.getCode()) {
+                case UP:
+                    scroll(-1, 0);
+                    return;
+                case DOWN:
+                    scroll(1, 0);
+                    return;
+                case LEFT:
+                    scroll(0, -1);
+                    return;
+                case RIGHT:
+                    scroll(0, 1);
+                    return;
+                case PLUS:
+                case EQUALS:
+                case ADD:
+                    zoom(true);
+                    return;
+                case MINUS:
+                case SUBTRACT:
+                    zoom(false);
+                    return;
+                case F3:
+                    latencyLabel.setVisible(!latencyLabel.isVisible());
+                    return;
+            }
 
-            if (LevelManager.getInstance().getGameLevel().makeMove(e.getCode().getChar().toLowerCase().charAt(0))) {
-                AudioManager.getInstance().playMoveSound();
-                renderCanvas();
-
-                if (LevelManager.getInstance().getGameLevel().isWin()) {
-                    AudioManager.getInstance().playWinSound();
-                    LevelManager.getInstance().resetLevelTimer();
-                    createLevelClearPopup();
-                }
-                else if (LevelManager.getInstance().getGameLevel().isDeadlocked()) {
-                    AudioManager.getInstance().playDeadlockSound();
-                    LevelManager.getInstance().resetLevelTimer();
-                    createDeadlockedPopup();
-                }
+            String key = e.getCode().getChar().toLowerCase();
+            if (!levelEnded && !key.isEmpty() && Map.Direction.fromKey(key.charAt(0)) != null) {
+                noteInput();
+                pendingMoves.append(key.charAt(0));
             }
         });
+        this.sceneProperty().addListener((o, oldScene, scene) -> {
+            //only pulse while on screen, as the scene manager leaves the pane behind when it switches scenes
+            if (scene != null) {
+                if (scene.getWindow() != null)
+                    pulse.start();
+                scene.windowProperty().addListener((o2, oldWindow, window) -> {
+                    if (window != null)
+                        pulse.start();
+                    else
+                        pulse.stop();
+                });
+            }
+        });
+        mapView.setOnMouseClicked(e -> onCanvasClicked(mapView.getRowAt(e.getY()), mapView.getColAt(e.getX())));
+        mapView.setOnScroll(e -> {
+            if (e.getDeltaY() != 0)
+                zoom(e.getDeltaY() > 0);
+        });
 
     }
 
+    /**
+     * Selects the clicked crate, clicking it again drops the selection. Otherwise pushes the selected crate to the
+     * clicked square if there is one, or walks the character there. Either way, the whole batch of moves counts as a
+     * single move as far as the canvas, sound and hint are concerned. The pushes are planned in the background, and
+     * made once planned unless the level moved on in the meantime.
+     *
+     * @param r The row coordinate of the clicked square, or -1 if the click missed the map
+     * @param c The column coordinate of the clicked square, or -1 if the click missed the map
+     */
+    private void onCanvasClicked(int r, int c) {
+        if (levelEnded || r == -1 || c == -1)
+            return;
+        noteInput();
+        GameLevel level = LevelManager.getInstance().getGameLevel();
+        Board board = level.getMap().getBoard();
+        boolean onCrate = board.hasCrate(board.index(r, c));
+        if (onCrate) {
+            boolean reselected = r == selectedCrateR && c == selectedCrateC;
+            selectCrate(reselected ? -1 : r, reselected ? -1 : c);
+            requestRender();
+            return;
+        }
+
+        if (selectedCrateR != -1) {
+            PushService.getInstance().requestPushes(level.getMap(), selectedCrateR, selectedCrateC, r, c, moves -> {
+                if (!levelEnded && moves != null && level.makeMoves(moves) > 0)
+                    onMoveMade();
+            });
+            selectCrate(-1, -1);
+            requestRender();
+            return;
+        }
+        String moves = level.findWalk(r, c);
+        if (moves != null && level.makeMoves(moves) > 0)
+            onMoveMade();
+    }
+
+    /**
+     * Scrolls the view, keeping the selected crate outlined.
+     *
+     * @param dr The number of rows to scroll down by, negative to scroll up
+     * @param dc The number of columns to scroll right by, negative to scroll left
+     */
+    private void scroll(int dr, int dc) {
+        noteInput();
+        mapView.scroll(dr, dc);
+        requestRender();
+    }
+
+    /**
+     * Zooms the view, keeping the selected crate outlined.
+     *
+     * @param in Whether to zoom in rather than out
+     */
+    private void zoom(boolean in) {
+        noteInput();
+        mapView.zoom(in);
+        requestRender();
+    }
+
+    /**
+     * Moves the selection, marking the cell of the previously selected crate to be redrawn without its outline.
+     *
+     * @param r The row coordinate of the crate to select, or -1 to drop the selection
+     * @param c The column coordinate of the crate to select, or -1
+     */
+    private void selectCrate(int r, int c) {
+        if (selectedCrateR != -1)
+            LevelManager.getInstance().getGameLevel().getMap().markDirty(selectedCrateR, selectedCrateC);
+        selectedCrateR = r;
+        selectedCrateC = c;
+    }
+
+    /**
+     * Called on every frame. Makes the moves keyed since the last frame, then renders the canvas if anything changed.
+     */
+    private void onPulse() {
+        if (pendingMoves.length() > 0)
+            makePendingMoves();
+        if (!renderRequested)
+            return;
+        renderRequested = false;
+        renderCanvas();
+        if (inputSince != 0) {
+            showLatency(System.nanoTime() - inputSince);
+            inputSince = 0;
+        }
+    }
+
+    /**
+     * Makes the queued moves as a single batch: the sound, the hint and the checks for the end of the level only
+     * happen once. Moves which cannot be made are skipped; only a push can end the level, so the win and deadlock
+     * conditions are checked after pushes, and the rest of the batch is dropped once the level ends.
+     */
+    private void makePendingMoves() {
+        GameLevel level = LevelManager.getInstance().getGameLevel();
+        lastBatchSize = 0;
+        for (int k = 0; k < pendingMoves.length(); k++) {
+            if (!level.makeMove(pendingMoves.charAt(k)))
+                continue;
+            lastBatchSize++;
+            if (level.getMap().lastMoveWasPush() && (level.isWin() || level.isDeadlocked()))
+                break;
+        }
+        pendingMoves.setLength(0);
+        if (lastBatchSize > 0)
+            onMoveMade();
+    }
+
+    /**
+     * Notes the time of an input, if it is the first since the last frame.
+     */
+    private void noteInput() {
+        if (inputSince == 0)
+            inputSince = System.nanoTime();
+    }
+
+    /**
+     * Has the canvas rendered at the next frame.
+     */
+    private void requestRender() {
+        renderRequested = true;
+    }
+
+    /**
+     * Shows the time from the oldest input of a frame until the frame was rendered, together with the worst time of
+     * the last second, if the overlay is shown.
+     *
+     * @param latency The time in nanoseconds
+     */
+    private void showLatency(long latency) {
+        long now = System.nanoTime();
+        if (now - worstLatencySince > 1_000_000_000L) {
+            worstLatency = 0;
+            worstLatencySince = now;
+        }
+        worstLatency = Math.max(worstLatency, latency);
+        if (latencyLabel.isVisible()) {
+            latencyLabel.setText(String.format("input to frame: %.1f ms, worst in the last second: %.1f ms, " +
+                    "moves in the frame: %d", latency / 1e6, worstLatency / 1e6, lastBatchSize));
+        }
+    }
+
+    /**
+     * Called after the player made (or redid) a move. Plays the sound, has the canvas rerendered and checks for the
+     * win and deadlock conditions. The popups are shown after the current frame, as they cannot wait for the user
+     * while a frame is being processed.
+     */
+    private void onMoveMade() {
+        selectCrate(-1, -1);
+        AudioManager.getInstance().playMoveSound();
+        requestRender();
+
+        if (LevelManager.getInstance().getGameLevel().isWin()) {
+            levelEnded = true;
+            clearHint();
+            AudioManager.getInstance().playWinSound();
+            LevelManager.getInstance().resetLevelTimer();
+            Platform.runLater(this::createLevelClearPopup);
+        } else if (LevelManager.getInstance().getGameLevel().isDeadlocked()) {
+            levelEnded = true;
+            clearHint();
+            AudioManager.getInstance().playDeadlockSound();
+            LevelManager.getInstance().resetLevelTimer();
+            Platform.runLater(this::createDeadlockedPopup);
+        } else {
+            updateHint();
+        }
+    }
+
+    /**
+     * Starts looking for the next push from the current state, and keeps doing so after every move until the level
+     * ends. The search runs in the background; the hint label shows the answer once it arrives.
+     */
+    private void requestHint() {
+        hintRequested = true;
+        hintLabel.setText("Hint: thinking...");
+        HintService.getInstance().requestHint(LevelManager.getInstance().getGameLevel().getMap(), hint -> {
+            if (hint == null) {
+                hintLabel.setText("Hint: the level cannot be solved from here");
+            } else {
+                hintLabel.setText(String.format("Hint: push the crate at row %d, column %d %s",
+                        hint.getCrateR() + 1, hint.getCrateC() + 1, hint.getDirection().name().toLowerCase()));
+            }
+        }, () -> hintLabel.setText("Hint: none found, this position is too hard to search"));
+    }
+
+    /**
+     * Called after the state of the map changed. Restarts the hint search from the new state if a hint was requested.
+     */
+    private void updateHint() {
+        if (hintRequested)
+            requestHint();
+    }
+
+    /**
+     * Cancels the hint search and clears the hint, until the next hint is requested.
+     */
+    private void clearHint() {
+        hintRequested = false;
+        HintService.getInstance().cancel();
+        hintLabel.setText("");
+    }
+
     /**
      * Called when the tries to quit to menu. Show a popup (see the documentation). If confirmed,
      * do the appropriate action regarding the level timer, level number of restarts, and go to the
@@ -133,6 +445,9 @@ public class GameplayPane extends BorderPane {
         var buttonClicked = popup.showAndWait();
         // okay?
         if (buttonClicked.get() == ButtonType.OK) {
+            clearHint();
+            //a plan still running was made on the board of this level, which stops changing once another is loaded
+            PushService.getInstance().cancel();
             LevelManager.getInstance().resetLevelTimer();
             LevelManager.getInstance().resetNumRestarts();
             SceneManager.getInstance().showMainMenuScene();
@@ -193,8 +508,10 @@ public class GameplayPane extends BorderPane {
                 LevelManager.getInstance().resetLevelTimer();
                 LevelManager.getInstance().startLevelTimer();
                 LevelManager.getInstance().setLevel(LevelManager.getInstance().getNextLevelName());
+                LevelManager.getInstance().getGameLevel().prepareForPlay();
                 LevelManager.getInstance().resetNumRestarts();
-                renderCanvas();
+                levelEnded = false;
+                requestRender();
             } catch (InvalidMapException e) {
                 e.printStackTrace();
                 return;
@@ -207,37 +524,35 @@ public class GameplayPane extends BorderPane {
     }
 
     /**
-     * Set the current level to the current level name, rerender the canvas, reset and start the timer, and
+     * Restart the current level from its initial state, rerender the canvas, reset and start the timer, and
      * increment the number of restarts
      */
     private void doRestartAction() {
-        //TODO
-        try {
-            LevelManager.getInstance().incrementNumRestarts();
-
-            int restartCount = LevelManager.getInstance().curGameLevelNumRestartsProperty().get();
-            LevelManager.getInstance().setLevel(LevelManager.getInstance().currentLevelNameProperty().getValue());
-            LevelManager.getInstance().curGameLevelNumRestartsProperty().set(restartCount);
-            renderCanvas();
-
-            LevelManager.getInstance().resetLevelTimer();
-            LevelManager.getInstance().startLevelTimer();               //check when crush
-
-        } catch (InvalidMapException e) {
-            e.printStackTrace();
-            return;
-        }
+        LevelManager.getInstance().incrementNumRestarts();
+        LevelManager.getInstance().restartLevel();
+        pendingMoves.setLength(0);
+        PushService.getInstance().cancel();
+        levelEnded = false;
+        selectCrate(-1, -1);
+        requestRender();
+        updateHint();
 
+        LevelManager.getInstance().resetLevelTimer();
+        LevelManager.getInstance().startLevelTimer();
     }
 
     /**
-     * Render the canvas with updated data
+     * Render the canvas with updated data, outlining the selected crate if any. Only the crates and the player of the
+     * cells changed since the last render are redrawn, over a background rasterised once per level. Called from the
+     * pulse; everything else uses {@link #requestRender()}.
      * <p>
      * Hint: {@link MapRenderer}
      */
     private void renderCanvas() {
         //TODO
 
-        MapRenderer.render(gamePlayCanvas, LevelManager.getInstance().getGameLevel().getMap().getCells());
+        mapView.render(LevelManager.getInstance().getGameLevel().getMap());
+        if (selectedCrateR != -1)
+            mapView.outline(selectedCrateR, selectedCrateC, Color.GOLD);
     }
 }
@@ -9,7 +9,7 @@ import javafx.scene.layout.VBox;
 import javafx.stage.DirectoryChooser;
 import model.Exceptions.InvalidMapException;
 import model.LevelManager;
-import model.Map.Cell;
+import model.Map.Board;
 import viewmodel.Config;
 import viewmodel.MapRenderer;
 import viewmodel.SceneManager;
@@ -84,7 +84,7 @@ public class LevelSelectPane extends BorderPane {
      * The play button should set the current level based on the current level name (see LevelManager), show
      * the gameplay scene, and start the level timer.
      * The listview, based on which item was clicked, should set the current level (see LevelManager), render the
-     * preview (see {@link MapRenderer#render(Canvas, Cell[][])}}, and set the play button to enabled.
+     * preview (see {@link MapRenderer#render(Canvas, Board)}}, and set the play button to enabled.
      */
     private void setCallbacks() {
         //TODO
@@ -100,6 +100,7 @@ public class LevelSelectPane extends BorderPane {
                 ie.printStackTrace();
                 return;
             }
+            manager.getGameLevel().prepareForPlay();
             SceneManager.getInstance().showGamePlayScene();
             manager.startLevelTimer();
         });
@@ -114,7 +115,7 @@ public class LevelSelectPane extends BorderPane {
                 ie.printStackTrace();
                 return;
             }
-            MapRenderer.render(levelPreview, LevelManager.getInstance().getGameLevel().getMap().getCells());
+            MapRenderer.render(levelPreview, LevelManager.getInstance().getGameLevel().getMap().getBoard());
             playButton.setDisable(false);
         });
 